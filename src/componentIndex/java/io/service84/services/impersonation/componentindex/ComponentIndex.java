@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.componentindex;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.SpringProperties;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.core.type.classreading.CachingMetadataReaderFactory;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.stereotype.Indexed;
+
+/**
+ * Writes the META-INF/spring.components index of every candidate component below the given
+ * packages, with the stereotypes the spring-context-indexer would record. Once an index is on the
+ * classpath Spring scans nothing, it reads the index instead, and the annotation processor can only
+ * index the sources of this project. The components of the libraries this service scans must be in
+ * the index too, so it is built from the compiled runtime classpath instead.
+ *
+ * <p>Usage: ComponentIndex output-file base-package...
+ */
+public class ComponentIndex {
+  private static final String IndexedName = Indexed.class.getName();
+  private static final ClassLoader JdkClassLoader = ClassLoader.getPlatformClassLoader();
+
+  private final MetadataReaderFactory metadataReaderFactory = new CachingMetadataReaderFactory();
+  private final Map<String, Boolean> indexed = new HashMap<>();
+
+  public static void main(String[] args) throws IOException {
+    // Scan the classes even where a library already ships an index of its own
+    SpringProperties.setProperty("spring.index.ignore", "true");
+    Path output = Paths.get(args[0]);
+    List<String> basePackages = Arrays.asList(args).subList(1, args.length);
+    Map<String, Set<String>> index = new ComponentIndex().index(basePackages);
+    Files.createDirectories(output.getParent());
+
+    try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+        writer.write(entry.getKey() + "=" + String.join(",", entry.getValue()) + "\n");
+      }
+    }
+
+    System.out.println("Indexed " + index.size() + " components of " + basePackages);
+  }
+
+  private Map<String, Set<String>> index(List<String> basePackages) throws IOException {
+    Map<String, Set<String>> index = new TreeMap<>();
+    ClassPathScanningCandidateComponentProvider provider =
+        new ClassPathScanningCandidateComponentProvider(false) {
+          // Conditions are evaluated at runtime, the index lists every class they might allow
+          @Override
+          protected boolean isCandidateComponent(MetadataReader metadataReader) {
+            return true;
+          }
+
+          @Override
+          protected boolean isCandidateComponent(AnnotatedBeanDefinition beanDefinition) {
+            return true;
+          }
+        };
+
+    for (String basePackage : basePackages) {
+      for (BeanDefinition candidate : provider.findCandidateComponents(basePackage)) {
+        AnnotationMetadata metadata = ((AnnotatedBeanDefinition) candidate).getMetadata();
+        Set<String> stereotypes = stereotypes(metadata);
+
+        if (!stereotypes.isEmpty()) {
+          index.put(metadata.getClassName(), stereotypes);
+        }
+      }
+    }
+
+    return index;
+  }
+
+  /**
+   * The @Indexed annotations and javax annotations of the class, and the @Indexed types it extends
+   * or implements, for example a Spring Data repository interface.
+   */
+  private Set<String> stereotypes(AnnotationMetadata metadata) throws IOException {
+    Set<String> stereotypes = new TreeSet<>();
+
+    for (String annotation : metadata.getAnnotationTypes()) {
+      if (annotation.startsWith("javax.") || isIndexed(annotation)) {
+        stereotypes.add(annotation);
+      }
+
+      for (String metaAnnotation : metadata.getMetaAnnotationTypes(annotation)) {
+        if (isIndexed(metaAnnotation)) {
+          stereotypes.add(metaAnnotation);
+        }
+      }
+    }
+
+    collectIndexedTypes(metadata.getClassName(), stereotypes);
+    return stereotypes;
+  }
+
+  private void collectIndexedTypes(String className, Set<String> stereotypes) throws IOException {
+    AnnotationMetadata metadata = read(className);
+
+    if (metadata == null) {
+      return;
+    }
+
+    if (metadata.hasAnnotation(IndexedName) && !metadata.isAnnotation()) {
+      stereotypes.add(className);
+    }
+
+    if (metadata.getSuperClassName() != null) {
+      collectIndexedTypes(metadata.getSuperClassName(), stereotypes);
+    }
+
+    for (String interfaceName : metadata.getInterfaceNames()) {
+      collectIndexedTypes(interfaceName, stereotypes);
+    }
+  }
+
+  private Boolean isIndexed(String annotation) throws IOException {
+    Boolean isIndexed = indexed.get(annotation);
+
+    if (isIndexed == null) {
+      AnnotationMetadata metadata = read(annotation);
+      isIndexed = metadata != null && metadata.hasAnnotation(IndexedName);
+      indexed.put(annotation, isIndexed);
+    }
+
+    return isIndexed;
+  }
+
+  /** @return the metadata of the class, null when it is a JDK class or not on the classpath */
+  private AnnotationMetadata read(String className) throws IOException {
+    // JDK types are never indexed, and need not be readable by the ASM of this Spring version
+    if (JdkClassLoader.getResource(className.replace('.', '/') + ".class") != null) {
+      return null;
+    }
+
+    try {
+      return metadataReaderFactory.getMetadataReader(className).getAnnotationMetadata();
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+}
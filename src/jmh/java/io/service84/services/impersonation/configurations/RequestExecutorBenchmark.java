@@ -0,0 +1,218 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.configurations;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tomcat.util.threads.TaskQueue;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+/**
+ * Compares the default Tomcat worker pool with the virtual thread executor on a burst of requests.
+ * Each invocation submits concurrency requests at once and waits for all of them. The sleep work
+ * only blocks, the jdbc work runs the query of an uncached assume through a Hikari pool of the
+ * default size and the PostgreSQL driver, which blocks inside synchronized methods and so pins the
+ * carrier threads of virtual threads before Java 24. The jdbc work uses an embedded database unless
+ * benchmark.datasource.url names a scratch database, which is migrated and seeded with grants. The
+ * virtual executor needs Java 21 or later, on older JDKs only the platform runs complete. Only the
+ * platform runs have been made so far.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestExecutorBenchmark {
+  // The defaults of server.tomcat.min-spare-threads and server.tomcat.max-threads
+  private static final Integer MinimumSpareThreads = 10;
+  private static final Integer MaximumThreads = 200;
+  // The default of spring.datasource.hikari.maximum-pool-size
+  private static final Integer PoolSize = 10;
+  private static final Integer Grants = 10000;
+
+  // The query Spring Data derives for existsBySubjectAndIdentity
+  private static final String ExistsBySubjectAndIdentity =
+      "SELECT id FROM assumable_identity WHERE subject = ? AND identity = ? LIMIT 1";
+
+  private static final String SeedGrants =
+      "INSERT INTO assumable_identity (id, subject, identity, created_date, modified_date)"
+          + " SELECT md5(random()::text)::uuid, md5(random()::text)::uuid,"
+          + " md5(random()::text)::uuid, now(), now()"
+          + " FROM generate_series(1, ?)";
+
+  private static final String FindGrants =
+      "SELECT subject, identity FROM assumable_identity LIMIT ?";
+
+  @Param({"platform", "virtual"})
+  private String executor;
+
+  @Param({"200", "1000", "10000"})
+  private Integer concurrency;
+
+  @Param({"sleep", "jdbc"})
+  private String work;
+
+  @Param({"1"})
+  private Long blockedMillis;
+
+  private ExecutorService executorService;
+  private EmbeddedPostgres postgres;
+  private HikariDataSource dataSource;
+  private List<UUID[]> grants;
+
+  /** The worker pool Tomcat creates for a connector when it is not given an executor. */
+  private static ExecutorService newTomcatExecutor() {
+    TaskQueue queue = new TaskQueue();
+    TaskThreadFactory threadFactory = new TaskThreadFactory("benchmark-exec-", true, 5);
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            MinimumSpareThreads, MaximumThreads, 60, TimeUnit.SECONDS, queue, threadFactory);
+    queue.setParent(executor);
+    return executor;
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, SQLException {
+    executorService =
+        "virtual".equals(executor) ? TomcatConfig.newVirtualThreadExecutor() : newTomcatExecutor();
+
+    if ("jdbc".equals(work)) {
+      setupDatabase();
+    }
+  }
+
+  private void setupDatabase() throws IOException, SQLException {
+    HikariConfig config = new HikariConfig();
+    String url = System.getProperty("benchmark.datasource.url");
+
+    if (url == null) {
+      postgres = EmbeddedPostgres.start();
+      url = postgres.getJdbcUrl("postgres", "postgres");
+    }
+
+    config.setJdbcUrl(url);
+    config.setUsername(System.getProperty("benchmark.datasource.username", "postgres"));
+    config.setPassword(System.getProperty("benchmark.datasource.password", "postgres"));
+    config.setMaximumPoolSize(PoolSize);
+    dataSource = new HikariDataSource(config);
+    Flyway.configure().dataSource(dataSource).load().migrate();
+    grants = new ArrayList<>();
+
+    try (Connection connection = dataSource.getConnection()) {
+      try (PreparedStatement statement = connection.prepareStatement(SeedGrants)) {
+        statement.setInt(1, Grants);
+        statement.executeUpdate();
+      }
+
+      try (PreparedStatement statement = connection.prepareStatement(FindGrants)) {
+        statement.setInt(1, Grants);
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+          while (resultSet.next()) {
+            grants.add(
+                new UUID[] {
+                  resultSet.getObject("subject", UUID.class),
+                  resultSet.getObject("identity", UUID.class)
+                });
+          }
+        }
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException, IOException {
+    executorService.shutdown();
+    executorService.awaitTermination(30, TimeUnit.SECONDS);
+
+    if (dataSource != null) {
+      dataSource.close();
+    }
+
+    if (postgres != null) {
+      postgres.close();
+    }
+  }
+
+  @Benchmark
+  public void burst() throws InterruptedException {
+    CountDownLatch completed = new CountDownLatch(concurrency);
+
+    for (int request = 0; request < concurrency; request++) {
+      Integer index = request;
+      executorService.execute(
+          () -> {
+            try {
+              if ("jdbc".equals(work)) {
+                assume(grants.get(index % grants.size()));
+              } else {
+                Thread.sleep(blockedMillis);
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            } finally {
+              completed.countDown();
+            }
+          });
+    }
+
+    completed.await();
+  }
+
+  private void assume(UUID[] grant) {
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement(ExistsBySubjectAndIdentity)) {
+      statement.setObject(1, grant[0]);
+      statement.setObject(2, grant[1]);
+
+      try (ResultSet resultSet = statement.executeQuery()) {
+        resultSet.next();
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
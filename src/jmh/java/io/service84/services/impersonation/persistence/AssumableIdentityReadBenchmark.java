@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.persistence;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.service84.services.impersonation.dto.AssumableIdentityDTO;
+import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.services.Translator;
+
+/**
+ * Compares reading a page of grants as managed entities with reading it as (subject, identity)
+ * projections, from the query through to the DTOs. Run with gradle jmh, the gc profiler reports the
+ * allocation per page next to the latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssumableIdentityReadBenchmark {
+  private static final Integer GrantCount = 20000;
+
+  @Param({"100", "1000", "10000"})
+  private Integer pageSize;
+
+  private SessionFactory sessionFactory;
+  private Translator translator;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    sessionFactory =
+        new Configuration()
+            .addAnnotatedClass(AssumableIdentity.class)
+            .setProperty("hibernate.connection.url", "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1")
+            .setProperty("hibernate.connection.username", "sa")
+            .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+            .setProperty("hibernate.integration.envers.enabled", "false")
+            .setProperty("hibernate.jdbc.batch_size", "1000")
+            .buildSessionFactory();
+    translator = new Translator();
+
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+
+      for (int index = 0; index < GrantCount; index++) {
+        session.persist(new AssumableIdentity(UUID.randomUUID(), UUID.randomUUID()));
+
+        if (index % 1000 == 0) {
+          session.flush();
+          session.clear();
+        }
+      }
+
+      transaction.commit();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    sessionFactory.close();
+  }
+
+  @Benchmark
+  public List<AssumableIdentityDTO> entities() {
+    try (Session session = sessionFactory.openSession()) {
+      return session
+          .createQuery(
+              "SELECT a FROM AssumableIdentity a ORDER BY a.subject, a.identity",
+              AssumableIdentity.class)
+          .setMaxResults(pageSize + 1)
+          .getResultStream()
+          .map(entity -> translator.translate(entity))
+          .collect(Collectors.toList());
+    }
+  }
+
+  @Benchmark
+  public List<AssumableIdentityDTO> projections() {
+    try (Session session = sessionFactory.openSession()) {
+      return session
+          .createQuery(
+              "SELECT new "
+                  + AssumableIdentityKey.class.getName()
+                  + "(a.subject, a.identity) FROM AssumableIdentity a"
+                  + " ORDER BY a.subject, a.identity",
+              AssumableIdentityKey.class)
+          .setReadOnly(true)
+          .setMaxResults(pageSize + 1)
+          .getResultStream()
+          .map(key -> translator.translate(key))
+          .collect(Collectors.toList());
+    }
+  }
+}
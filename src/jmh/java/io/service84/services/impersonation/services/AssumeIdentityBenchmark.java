@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.services;
+
+import static io.service84.services.impersonation.services.BenchmarkSupport.AssumeIdentityScope;
+import static io.service84.services.impersonation.services.BenchmarkSupport.ImpersonateAnyOtherSubjectScope;
+import static io.service84.services.impersonation.services.BenchmarkSupport.impersonationService;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.service84.services.impersonation.exceptions.InsufficientPermission;
+
+/**
+ * ImpersonationService.assumeIdentity with the grant cache and filter disabled, against an
+ * authentication service and repository that answer immediately, for each way a decision is made.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssumeIdentityBenchmark {
+  @Param({"scope", "grant", "denied"})
+  private String decision;
+
+  private ImpersonationService impersonationService;
+  private UUID identity;
+
+  @Setup
+  public void setup() {
+    List<String> scopes =
+        "scope".equals(decision)
+            ? List.of(AssumeIdentityScope, ImpersonateAnyOtherSubjectScope)
+            : List.of(AssumeIdentityScope);
+    identity = UUID.randomUUID();
+    impersonationService = impersonationService(scopes, "grant".equals(decision));
+  }
+
+  @Benchmark
+  public Object assumeIdentity() {
+    try {
+      return impersonationService.assumeIdentity(identity);
+    } catch (InsufficientPermission e) {
+      return e;
+    }
+  }
+}
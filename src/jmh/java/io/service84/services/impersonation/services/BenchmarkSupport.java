@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.services;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.util.ReflectionUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.service84.library.authutils.services.AuthenticationService;
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+/** Wires the services under benchmark without a Spring context. */
+final class BenchmarkSupport {
+  static final String AssumeIdentityScope = "impersonation:assume_identity";
+  static final String ImpersonateAnyOtherSubjectScope =
+      "impersonation:impersonate_any_other_subject";
+
+  private BenchmarkSupport() {}
+
+  static void inject(Object target, String name, Object value) {
+    Field field = ReflectionUtils.findField(target.getClass(), name);
+    ReflectionUtils.makeAccessible(field);
+    ReflectionUtils.setField(field, target, value);
+  }
+
+  /**
+   * An ImpersonationService with the grant cache disabled, for a caller with the given scopes,
+   * against an authentication service and repository that answer immediately.
+   */
+  static ImpersonationService impersonationService(List<String> scopes, Boolean granted) {
+    String subject = UUID.randomUUID().toString();
+    AuthenticationService authenticationService =
+        new AuthenticationService() {
+          @Override
+          public String getSubject() {
+            return subject;
+          }
+
+          @Override
+          public List<String> getScopes() {
+            return scopes;
+          }
+        };
+    AssumableIdentityRepository repository =
+        (AssumableIdentityRepository)
+            Proxy.newProxyInstance(
+                AssumableIdentityRepository.class.getClassLoader(),
+                new Class<?>[] {AssumableIdentityRepository.class},
+                (proxy, method, arguments) -> {
+                  if ("existsBySubjectAndIdentity".equals(method.getName())) {
+                    return granted;
+                  }
+
+                  throw new UnsupportedOperationException(method.getName());
+                });
+
+    GrantCache grantCache = new GrantCache();
+    inject(grantCache, "enabled", false);
+    ImpersonationMetrics metrics = new ImpersonationMetrics();
+    inject(metrics, "meterRegistry", new SimpleMeterRegistry());
+    metrics.initialize();
+
+    ImpersonationService impersonationService = new ImpersonationService();
+    inject(impersonationService, "authenticationService", authenticationService);
+    inject(impersonationService, "grantCache", grantCache);
+    inject(impersonationService, "grantFilter", new GrantFilter());
+    inject(impersonationService, "metrics", metrics);
+    inject(impersonationService, "repository", repository);
+    return impersonationService;
+  }
+}
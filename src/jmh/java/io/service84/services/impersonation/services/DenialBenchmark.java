@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static io.service84.services.impersonation.services.BenchmarkSupport.AssumeIdentityScope;
+import static io.service84.services.impersonation.services.BenchmarkSupport.impersonationService;
+import static io.service84.services.impersonation.services.BenchmarkSupport.inject;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.service84.library.exceptionalresult.models.ExceptionalException;
+import io.service84.services.impersonation.api.rest.ImpersonationDelegate;
+import io.service84.services.impersonation.dto.IdentityRequestDTO;
+
+/**
+ * A denied assume from the service through the delegate that maps it to a 403, entered at the given
+ * stack depth because filling in a stack trace costs in proportion to the depth, a servlet request
+ * is well over a hundred frames deep. Run with gradle jmh, the gc profiler reports the allocation
+ * per denial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DenialBenchmark {
+  @Param({"missing_scope", "not_granted"})
+  private String reason;
+
+  @Param({"16", "128"})
+  private Integer depth;
+
+  private ImpersonationDelegate delegate;
+  private IdentityRequestDTO body;
+
+  @Setup
+  public void setup() {
+    List<String> scopes = "missing_scope".equals(reason) ? List.of() : List.of(AssumeIdentityScope);
+    body = new IdentityRequestDTO().identity(UUID.randomUUID());
+    delegate = new ImpersonationDelegate();
+    inject(delegate, "impersonationService", impersonationService(scopes, false));
+  }
+
+  @Benchmark
+  public Object denied() {
+    return deny(depth);
+  }
+
+  private Object deny(int remaining) {
+    if (remaining > 0) {
+      return deny(remaining - 1);
+    }
+
+    try {
+      return delegate.assumeIdentity(body, null);
+    } catch (ExceptionalException e) {
+      return e;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.jpa.domain.Specification;
+
+import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+
+/**
+ * Building the subject and identity selectors of a retrieve, alone and through to the criteria
+ * predicate Hibernate is given.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpecificationBenchmark {
+  @Param({"0", "1", "10", "100"})
+  private Integer selectorSize;
+
+  private SessionFactory sessionFactory;
+  private CriteriaBuilder builder;
+  private ImpersonationService impersonationService;
+  private List<UUID> subjects;
+  private List<UUID> identities;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    sessionFactory =
+        new Configuration()
+            .addAnnotatedClass(AssumableIdentity.class)
+            .setProperty("hibernate.connection.url", "jdbc:h2:mem:specification")
+            .setProperty("hibernate.connection.username", "sa")
+            .setProperty("hibernate.integration.envers.enabled", "false")
+            .buildSessionFactory();
+    builder = sessionFactory.getCriteriaBuilder();
+    impersonationService = new ImpersonationService();
+    subjects = new ArrayList<>(selectorSize);
+    identities = new ArrayList<>(selectorSize);
+
+    for (int index = 0; index < selectorSize; index++) {
+      subjects.add(UUID.randomUUID());
+      identities.add(UUID.randomUUID());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    sessionFactory.close();
+  }
+
+  @Benchmark
+  public Specification<AssumableIdentity> buildSpecification() {
+    return impersonationService
+        .subjectSelector(subjects)
+        .and(impersonationService.identitySelector(identities));
+  }
+
+  @Benchmark
+  public Predicate buildPredicate() {
+    CriteriaQuery<AssumableIdentity> query = builder.createQuery(AssumableIdentity.class);
+    Root<AssumableIdentity> root = query.from(AssumableIdentity.class);
+    return buildSpecification().toPredicate(root, query, builder);
+  }
+}
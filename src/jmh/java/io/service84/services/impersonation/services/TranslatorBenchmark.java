@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.service84.services.impersonation.dto.AssumableIdentityPageDTO;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+
+/** Translating a page of grants to its DTO, and serializing that DTO to JSON. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslatorBenchmark {
+  @Param({"10", "100", "1000", "10000"})
+  private Integer pageSize;
+
+  private Translator translator;
+  private ObjectMapper objectMapper;
+  private SeekPage<AssumableIdentityKey> page;
+  private AssumableIdentityPageDTO pageDTO;
+
+  @Setup
+  public void setup() {
+    List<AssumableIdentityKey> keys = new ArrayList<>(pageSize);
+
+    for (int index = 0; index < pageSize; index++) {
+      keys.add(new AssumableIdentityKey(UUID.randomUUID(), UUID.randomUUID()));
+    }
+
+    translator = new Translator();
+    objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    page = new SeekPage<>(keys, true, 100000L);
+    pageDTO = translator.translateAssumableIdentityPage(page, null);
+  }
+
+  @Benchmark
+  public AssumableIdentityPageDTO translateAssumableIdentityPage() {
+    return translator.translateAssumableIdentityPage(page, null);
+  }
+
+  @Benchmark
+  public byte[] serializeAssumableIdentityPage() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(pageDTO);
+  }
+}
@@ -0,0 +1,412 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.service84.services.impersonation.Service;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+/**
+ * Boots the service against Postgres and a stub JWT provider, seeds it with grants and then drives
+ * a mixed workload at a fixed rate, reporting the latency percentiles and throughput of every
+ * operation. Run with gradle loadTest, configured through loadtest.* project properties, while any
+ * --property=value arguments are passed on to the service.
+ *
+ * <p>Requests are sent on a fixed schedule whether or not earlier ones have completed and latency
+ * is measured from the time a request was due, so a stalled service shows up in the percentiles
+ * rather than slowing the load down.
+ */
+public class LoadTest {
+  private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+  private static final String AssumeIdentityScope = "impersonation:assume_identity";
+  private static final List<String> AdministratorScopes =
+      List.of(
+          "impersonation:grant_any_assumable_identity",
+          "impersonation:revoke_any_assumable_identity",
+          "impersonation:retrieve_any_assumable_identity");
+  private static final Integer SeedBatchSize = 10000;
+  private static final Duration DrainTimeout = Duration.ofSeconds(30);
+  private static final Long HighestTrackableLatency = TimeUnit.MINUTES.toMicros(1);
+
+  enum Operation {
+    AssumeHit("assume_hit", 200),
+    AssumeMiss("assume_miss", 403),
+    Grant("grant", 200),
+    Revoke("revoke", 204),
+    Page("page", 200);
+
+    private final String name;
+    private final Integer expectedStatus;
+
+    Operation(String name, Integer expectedStatus) {
+      this.name = name;
+      this.expectedStatus = expectedStatus;
+    }
+
+    static Operation forName(String name) {
+      for (Operation operation : values()) {
+        if (operation.name.equals(name)) {
+          return operation;
+        }
+      }
+
+      throw new IllegalArgumentException("Unknown operation " + name);
+    }
+  }
+
+  private static class Result {
+    private final Histogram latencies = new ConcurrentHistogram(HighestTrackableLatency, 3);
+    private final LongAdder errors = new LongAdder();
+  }
+
+  private final HttpClient client = HttpClient.newBuilder().build();
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicReference<String> pageIndex = new AtomicReference<>();
+  private final Queue<UUID[]> granted = new ConcurrentLinkedQueue<>();
+
+  private final Integer rate = Integer.getInteger("loadtest.rate", 500);
+  private final Integer grantCount = Integer.getInteger("loadtest.grants", 100000);
+  private final Integer subjectCount = Integer.getInteger("loadtest.subjects", 1000);
+  private final Integer pageSize = Integer.getInteger("loadtest.pagesize", 100);
+  private final Duration warmup = Duration.parse(System.getProperty("loadtest.warmup", "PT10S"));
+  private final Duration duration =
+      Duration.parse(System.getProperty("loadtest.duration", "PT60S"));
+  private final String mix =
+      System.getProperty("loadtest.mix", "assume_hit:60,assume_miss:20,grant:5,revoke:5,page:10");
+  private final Path report = Paths.get(System.getProperty("loadtest.report", "loadtest.txt"));
+
+  private Operation[] schedule;
+  private String baseUrl;
+  private String administratorToken;
+  private UUID[] subjects;
+  private String[] subjectTokens;
+  private UUID[][] seeded;
+
+  public static void main(String[] args) throws Exception {
+    TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    new LoadTest().run(args);
+  }
+
+  private void run(String[] args) throws Exception {
+    schedule = parseMix(mix);
+    String url = System.getProperty("loadtest.datasource.url");
+    EmbeddedPostgres postgres = null;
+
+    try (StubIssuer issuer = new StubIssuer()) {
+      Map<String, String> properties = new LinkedHashMap<>();
+
+      if (url == null) {
+        postgres = EmbeddedPostgres.start();
+        properties.put("spring.datasource.url", postgres.getJdbcUrl("postgres", "postgres"));
+        properties.put("spring.datasource.username", "postgres");
+        properties.put("spring.datasource.password", "postgres");
+      } else {
+        properties.put("spring.datasource.url", url);
+        properties.put(
+            "spring.datasource.username", System.getProperty("loadtest.datasource.username"));
+        properties.put(
+            "spring.datasource.password", System.getProperty("loadtest.datasource.password"));
+      }
+
+      properties.put("server.port", "0");
+      properties.put("spring.jpa.show-sql", "false");
+      properties.put("spring.jpa.properties.hibernate.format_sql", "false");
+      properties.put("io.service84.library.standardauth.jwtaf.url", issuer.getJwksUrl());
+      properties.put("io.service84.library.standardauth.jwtaf.issuer", StubIssuer.Issuer);
+      properties.put("io.service84.services.impersonation.tokencache.enabled", "true");
+      properties.put("io.service84.services.impersonation.accesslog.successsamplerate", "0.01");
+
+      for (String arg : args) {
+        String[] property = arg.replaceFirst("^--", "").split("=", 2);
+        properties.put(property[0], property.length > 1 ? property[1] : "");
+      }
+
+      List<String> serviceArgs = new ArrayList<>();
+      properties.forEach((key, value) -> serviceArgs.add("--" + key + "=" + value));
+
+      try (ConfigurableApplicationContext context =
+          SpringApplication.run(Service.class, serviceArgs.toArray(new String[0]))) {
+        baseUrl =
+            "http://127.0.0.1:"
+                + context.getEnvironment().getProperty("local.server.port")
+                + "/assumable_identities";
+        issueTokens(issuer);
+        seed();
+
+        logger.info("Warming up for {} at {} requests per second", warmup, rate);
+        drive(warmup);
+        pageIndex.set(null);
+        logger.info("Measuring for {} at {} requests per second", duration, rate);
+        Map<Operation, Result> results = drive(duration);
+        report(results);
+      }
+    } finally {
+      if (postgres != null) {
+        postgres.close();
+      }
+    }
+  }
+
+  private static Operation[] parseMix(String mix) {
+    List<Operation> schedule = new ArrayList<>();
+
+    for (String entry : mix.split(",")) {
+      String[] weight = entry.trim().split(":");
+      Operation operation = Operation.forName(weight[0]);
+
+      for (int count = Integer.parseInt(weight[1]); count > 0; count--) {
+        schedule.add(operation);
+      }
+    }
+
+    if (schedule.isEmpty()) {
+      throw new IllegalArgumentException("Empty operation mix " + mix);
+    }
+
+    return schedule.toArray(new Operation[0]);
+  }
+
+  private void issueTokens(StubIssuer issuer) {
+    administratorToken = issuer.sign(UUID.randomUUID(), AdministratorScopes);
+    subjects = new UUID[subjectCount];
+    subjectTokens = new String[subjectCount];
+
+    for (int index = 0; index < subjectCount; index++) {
+      subjects[index] = UUID.randomUUID();
+      subjectTokens[index] = issuer.sign(subjects[index], List.of(AssumeIdentityScope));
+    }
+  }
+
+  /** Grant every seeded pair through the bulk endpoint, so it is audited like any other grant. */
+  private void seed() throws IOException, InterruptedException {
+    logger.info("Seeding {} grants across {} subjects", grantCount, subjectCount);
+    seeded = new UUID[grantCount][];
+
+    for (int start = 0; start < grantCount; start += SeedBatchSize) {
+      StringBuilder body = new StringBuilder("[");
+
+      for (int index = start; index < Math.min(grantCount, start + SeedBatchSize); index++) {
+        seeded[index] = new UUID[] {subjects[index % subjectCount], UUID.randomUUID()};
+        body.append(index == start ? "" : ",").append(pair(seeded[index]));
+      }
+
+      HttpResponse<String> response =
+          client.send(
+              post("/grant_bulk", administratorToken, body.append("]")), BodyHandlers.ofString());
+
+      if (response.statusCode() != 200) {
+        throw new IllegalStateException("Seeding failed with " + response.statusCode());
+      }
+    }
+  }
+
+  /**
+   * Send requests on a fixed schedule for the given duration and wait for the ones still in flight.
+   */
+  private Map<Operation, Result> drive(Duration duration) throws InterruptedException {
+    Map<Operation, Result> results = new EnumMap<>(Operation.class);
+
+    for (Operation operation : Operation.values()) {
+      results.put(operation, new Result());
+    }
+
+    long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+
+    for (long due = start; due < end; due += interval) {
+      long wait = due - System.nanoTime();
+
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+
+      Operation operation = schedule[ThreadLocalRandom.current().nextInt(schedule.length)];
+      send(operation, due, results.get(operation));
+    }
+
+    long deadline = System.nanoTime() + DrainTimeout.toNanos();
+
+    while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+
+    return results;
+  }
+
+  private void send(Operation operation, long due, Result result) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    HttpRequest request;
+    UUID[] pair;
+
+    switch (operation) {
+      case AssumeHit:
+        int seed = random.nextInt(seeded.length);
+        request = assume(seed % subjectCount, seeded[seed][1]);
+        break;
+      case AssumeMiss:
+        request = assume(random.nextInt(subjectCount), UUID.randomUUID());
+        break;
+      case Grant:
+        pair = new UUID[] {subjects[random.nextInt(subjectCount)], UUID.randomUUID()};
+        request = post("/grant", administratorToken, pair(pair));
+        break;
+      case Revoke:
+        pair = granted.poll();
+
+        if (pair == null) {
+          pair = new UUID[] {subjects[random.nextInt(subjectCount)], UUID.randomUUID()};
+        }
+
+        request = post("/revoke", administratorToken, pair(pair));
+        break;
+      default:
+        String index = pageIndex.get();
+        request =
+            HttpRequest.newBuilder(
+                    URI.create(
+                        baseUrl
+                            + "?total=omitted&page_size="
+                            + pageSize
+                            + (index == null ? "" : "&page_index=" + index)))
+                .header("Authentication", administratorToken)
+                .build();
+        break;
+    }
+
+    inFlight.incrementAndGet();
+    client
+        .sendAsync(request, BodyHandlers.ofString())
+        .whenComplete(
+            (response, error) -> {
+              long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due);
+              result.latencies.recordValue(Math.min(latency, HighestTrackableLatency));
+
+              if (error != null || response.statusCode() != operation.expectedStatus) {
+                result.errors.increment();
+              } else {
+                completed(operation, request, response);
+              }
+
+              inFlight.decrementAndGet();
+            });
+  }
+
+  private void completed(Operation operation, HttpRequest request, HttpResponse<String> response) {
+    try {
+      switch (operation) {
+        case Grant:
+          JsonNode grant = objectMapper.readTree(response.body());
+          granted.add(
+              new UUID[] {
+                UUID.fromString(grant.get("subject").asText()),
+                UUID.fromString(grant.get("identity").asText())
+              });
+          break;
+        case Page:
+          JsonNode nextIndex = objectMapper.readTree(response.body()).at("/metadata/nextIndex");
+          pageIndex.set(nextIndex.isTextual() ? nextIndex.asText() : null);
+          break;
+        default:
+          break;
+      }
+    } catch (IOException e) {
+      logger.warn("Unreadable {} response", operation.name, e);
+    }
+  }
+
+  private HttpRequest assume(int subject, UUID identity) {
+    return post("/assume_identity", subjectTokens[subject], "{\"identity\":\"" + identity + "\"}");
+  }
+
+  private HttpRequest post(String path, String token, CharSequence body) {
+    return HttpRequest.newBuilder(URI.create(baseUrl + path))
+        .header("Authentication", token)
+        .header("Content-Type", "application/json")
+        .POST(BodyPublishers.ofString(body.toString()))
+        .build();
+  }
+
+  private static String pair(UUID[] pair) {
+    return "{\"subject\":\"" + pair[0] + "\",\"identity\":\"" + pair[1] + "\"}";
+  }
+
+  private void report(Map<Operation, Result> results) throws IOException {
+    double seconds = duration.toNanos() / (double) TimeUnit.SECONDS.toNanos(1);
+    StringBuilder table = new StringBuilder();
+    table.append(
+        String.format(
+            "%-12s %10s %10s %10s %10s %10s %10s %8s%n",
+            "operation", "count", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors"));
+
+    for (Map.Entry<Operation, Result> entry : results.entrySet()) {
+      Histogram latencies = entry.getValue().latencies;
+      table.append(
+          String.format(
+              "%-12s %10d %10.1f %10.3f %10.3f %10.3f %10.3f %8d%n",
+              entry.getKey().name,
+              latencies.getTotalCount(),
+              latencies.getTotalCount() / seconds,
+              latencies.getValueAtPercentile(50) / 1000.0,
+              latencies.getValueAtPercentile(99) / 1000.0,
+              latencies.getValueAtPercentile(99.9) / 1000.0,
+              latencies.getMaxValue() / 1000.0,
+              entry.getValue().errors.sum()));
+    }
+
+    System.out.print(table);
+    Files.createDirectories(report.toAbsolutePath().getParent());
+    Files.write(report, table.toString().getBytes(StandardCharsets.UTF_8));
+    logger.info("Report written to {}", report.toAbsolutePath());
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand in for the JWT provider. It serves the JWKS of a key generated at startup and signs
+ * tokens with it for any subject and scopes the load test asks for.
+ */
+public class StubIssuer implements AutoCloseable {
+  static final String Issuer = "loadtest";
+
+  private static final String KeyId = "loadtest";
+  private static final Duration TokenLifetime = Duration.ofHours(1);
+
+  private final HttpServer server;
+  private final Algorithm algorithm;
+
+  public StubIssuer() throws IOException, NoSuchAlgorithmException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    KeyPair keyPair = generator.generateKeyPair();
+    RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+    algorithm = Algorithm.RSA256(publicKey, (RSAPrivateKey) keyPair.getPrivate());
+
+    byte[] jwks = jwks(publicKey).getBytes(StandardCharsets.UTF_8);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/jwks",
+        exchange -> {
+          exchange.getResponseHeaders().set("Content-Type", "application/json");
+          exchange.sendResponseHeaders(200, jwks.length);
+
+          try (OutputStream body = exchange.getResponseBody()) {
+            body.write(jwks);
+          }
+        });
+    server.start();
+  }
+
+  private static String base64(byte[] bytes) {
+    int offset = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+    byte[] unsigned = new byte[bytes.length - offset];
+    System.arraycopy(bytes, offset, unsigned, 0, unsigned.length);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(unsigned);
+  }
+
+  private static String jwks(RSAPublicKey publicKey) {
+    return "{\"keys\":[{\"kty\":\"RSA\",\"use\":\"sig\",\"alg\":\"RS256\",\"kid\":\""
+        + KeyId
+        + "\",\"n\":\""
+        + base64(publicKey.getModulus().toByteArray())
+        + "\",\"e\":\""
+        + base64(publicKey.getPublicExponent().toByteArray())
+        + "\"}]}";
+  }
+
+  public String getJwksUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/jwks";
+  }
+
+  public String sign(UUID subject, List<String> scopes) {
+    Instant now = Instant.now();
+    return JWT.create()
+        .withKeyId(KeyId)
+        .withIssuer(Issuer)
+        .withSubject(subject.toString())
+        .withClaim("scope", String.join(" ", scopes))
+        .withIssuedAt(Date.from(now))
+        .withExpiresAt(Date.from(now.plus(TokenLifetime)))
+        .sign(algorithm);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package db.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+/**
+ * Makes sure the grant indexes of V2 exist and are valid. On a large table V2 can be skipped by
+ * building its indexes concurrently by hand beforehand, a build that fails leaves an invalid index
+ * that V2 skips as well, and without a valid unique index every idempotent grant fails. Invalid
+ * indexes are dropped and every missing index is built concurrently, so grants stay writable. Runs
+ * outside of a transaction, which concurrent statements require.
+ */
+public class V5__assumable_identity_concurrent_indexes extends BaseJavaMigration {
+  private static final String IndexValid =
+      "SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass(?)";
+
+  @Override
+  public boolean canExecuteInTransaction() {
+    return false;
+  }
+
+  @Override
+  public void migrate(Context context) throws SQLException {
+    Connection connection = context.getConnection();
+    ensureIndex(
+        connection,
+        "assumable_identity_subject_identity_key",
+        "CREATE UNIQUE INDEX CONCURRENTLY assumable_identity_subject_identity_key"
+            + " ON assumable_identity (subject, identity)");
+    ensureIndex(
+        connection,
+        "assumable_identity_identity_idx",
+        "CREATE INDEX CONCURRENTLY assumable_identity_identity_idx"
+            + " ON assumable_identity (identity)");
+  }
+
+  private static void ensureIndex(Connection connection, String name, String create)
+      throws SQLException {
+    Boolean valid = null;
+
+    try (PreparedStatement statement = connection.prepareStatement(IndexValid)) {
+      statement.setString(1, name);
+
+      try (ResultSet resultSet = statement.executeQuery()) {
+        if (resultSet.next()) {
+          valid = resultSet.getBoolean(1);
+        }
+      }
+    }
+
+    if (Boolean.TRUE.equals(valid)) {
+      return;
+    }
+
+    try (Statement statement = connection.createStatement()) {
+      if (valid != null) {
+        statement.execute("DROP INDEX CONCURRENTLY " + name);
+      }
+
+      statement.execute(create);
+    }
+  }
+}
@@ -14,19 +14,40 @@
 
 package io.service84.services.impersonation;
 
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.service84.services.impersonation.services.WarmUp;
+
 @Component("95DD5C73-326D-443D-BAE3-68970BA7797C")
 public class ApplicationStartup implements ApplicationListener<ApplicationReadyEvent> {
   private static final Logger logger = LoggerFactory.getLogger(ApplicationStartup.class);
+  private static final String StartupTime = "impersonation.startup.time";
+
+  @Value("${io.service84.services.impersonation.exitafterstartup:false}")
+  private Boolean exitAfterStartup;
+
+  @Autowired private MeterRegistry meterRegistry;
+  @Autowired private WarmUp warmUp;
 
   /**
    * This event is executed as late as conceivably possible to indicate that the application is
-   * ready to service requests.
+   * ready to service requests. The instance reports ready to the readiness probe only once the warm
+   * up has run, which warms the connection pool and the JIT but cannot keep the grant cache warm
+   * beyond its time to live. The startup time is measured from the start of the JVM, so that it
+   * includes what class data sharing saves.
    */
   @Override
   public void onApplicationEvent(final ApplicationReadyEvent event) {
@@ -34,8 +55,20 @@ public class ApplicationStartup implements ApplicationListener<ApplicationReadyE
     logger.info("Initializing application startup processes");
     logger.info("------------------------------------------");
 
+    warmUp.run();
+
+    Duration startupTime = Duration.ofMillis(ManagementFactory.getRuntimeMXBean().getUptime());
+    TimeGauge.builder(StartupTime, startupTime, TimeUnit.MILLISECONDS, Duration::toMillis)
+        .description("The time from the start of the JVM until the instance was ready")
+        .register(meterRegistry);
+
     logger.info("------------------------------------------");
-    logger.info("Application startup completed");
+    logger.info("Application startup completed in {} ms", startupTime.toMillis());
     logger.info("------------------------------------------");
+
+    // A training run, such as the one that records the classes for class data sharing
+    if (exitAfterStartup) {
+      System.exit(SpringApplication.exit(event.getApplicationContext()));
+    }
   }
 }
@@ -26,14 +26,13 @@ import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.PropertySources;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-
-import springfox.documentation.swagger2.annotations.EnableSwagger2;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(exclude = {SecurityAutoConfiguration.class})
 @ComponentScan({"io.service84"})
 @EnableJpaRepositories({"io.service84"})
 @EntityScan({"io.service84"})
-@EnableSwagger2
+@EnableScheduling
 @PropertySources({@PropertySource("classpath:application.properties")})
 public class Service {
   private static final Logger logger = LoggerFactory.getLogger(Service.class);
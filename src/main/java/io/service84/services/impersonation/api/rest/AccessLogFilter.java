@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.api.rest;
+
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.service84.library.authutils.services.AuthenticationService;
+
+/**
+ * Writes one structured access record per request once the response is complete, carrying the
+ * outcome and latency. Failed requests are always recorded, successful ones are sampled.
+ * Asynchronous requests are recorded when the asynchronous processing completes, times out or
+ * fails.
+ */
+@Component("42AB43CD-B4B4-4441-A859-6BCD55783518")
+public class AccessLogFilter extends OncePerRequestFilter {
+  private static final Logger logger = LoggerFactory.getLogger(AccessLogFilter.class);
+
+  @Value("${io.service84.services.impersonation.accesslog.successsamplerate:1.0}")
+  private Double successSampleRate;
+
+  @Autowired private AuthenticationService authenticationService;
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    long start = System.nanoTime();
+    Integer status = null;
+
+    try {
+      filterChain.doFilter(request, response);
+      status = response.getStatus();
+    } finally {
+      if (status == null) {
+        status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+      }
+
+      if (isAsyncStarted(request)) {
+        recordOnComplete(request, response, start);
+      } else if (shouldRecord(status)) {
+        record(request, getSubject(), status, System.nanoTime() - start);
+      }
+    }
+  }
+
+  private void recordOnComplete(
+      HttpServletRequest request, HttpServletResponse response, long start) {
+    // The authentication of the request is not available once it completes on another thread
+    String subject = getSubject();
+    request
+        .getAsyncContext()
+        .addListener(
+            new AsyncListener() {
+              private final AtomicBoolean recorded = new AtomicBoolean();
+
+              @Override
+              public void onComplete(AsyncEvent event) {
+                recordOnce(response.getStatus());
+              }
+
+              // A timed out or failed request can still complete with a success status, or never
+              // complete once the client is gone, so it is recorded as failed when it fails
+              @Override
+              public void onTimeout(AsyncEvent event) {
+                recordOnce(failedStatus(HttpStatus.SERVICE_UNAVAILABLE));
+              }
+
+              @Override
+              public void onError(AsyncEvent event) {
+                recordOnce(failedStatus(HttpStatus.INTERNAL_SERVER_ERROR));
+              }
+
+              @Override
+              public void onStartAsync(AsyncEvent event) {}
+
+              private Integer failedStatus(HttpStatus otherwise) {
+                Integer status = response.getStatus();
+                return status >= HttpStatus.BAD_REQUEST.value() ? status : otherwise.value();
+              }
+
+              private void recordOnce(Integer status) {
+                if (recorded.compareAndSet(false, true) && shouldRecord(status)) {
+                  record(request, subject, status, System.nanoTime() - start);
+                }
+              }
+            });
+  }
+
+  private Boolean shouldRecord(Integer status) {
+    if (!logger.isInfoEnabled()) {
+      return false;
+    }
+
+    if (status >= HttpStatus.BAD_REQUEST.value()) {
+      return true;
+    }
+
+    return successSampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < successSampleRate;
+  }
+
+  private void record(HttpServletRequest request, String subject, Integer status, long elapsed) {
+    HttpStatus httpStatus = HttpStatus.resolve(status);
+    logger.info(
+        "{} {} {} {} {} {}",
+        keyValue("subject", subject),
+        keyValue("method", request.getMethod()),
+        keyValue("uri", request.getRequestURI()),
+        keyValue("status", status),
+        keyValue("outcome", httpStatus == null ? null : httpStatus.getReasonPhrase()),
+        keyValue("latency_us", TimeUnit.NANOSECONDS.toMicros(elapsed)));
+  }
+
+  private String getSubject() {
+    try {
+      return authenticationService.getSubject();
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+}
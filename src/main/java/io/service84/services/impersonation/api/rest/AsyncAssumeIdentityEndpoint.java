@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.api.rest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import javax.validation.Valid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+
+import io.service84.library.exceptionalresult.models.ExceptionalException;
+import io.service84.services.impersonation.api.rest.exceptionalresults.InsufficientPermissionResult;
+import io.service84.services.impersonation.api.rest.exceptionalresults.InternalServerError;
+import io.service84.services.impersonation.api.rest.exceptionalresults.ServiceUnavailable;
+import io.service84.services.impersonation.dto.AssumedIdentityDTO;
+import io.service84.services.impersonation.dto.IdentityRequestDTO;
+import io.service84.services.impersonation.exceptions.InsufficientPermission;
+import io.service84.services.impersonation.exceptions.Overloaded;
+import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.services.AssertionSigner;
+import io.service84.services.impersonation.services.ImpersonationService;
+import io.service84.services.impersonation.services.Translator;
+
+/**
+ * Serves assume requests asynchronously in place of the generated API when asynchronous assume is
+ * enabled, releasing the request thread while the grant is looked up. It is deliberately not a
+ * controller, it is only mapped by the handler mapping of the AsyncAssumeConfiguration.
+ */
+@Component("9876BB92-1622-48DF-9003-5F9FF230A9BE")
+public class AsyncAssumeIdentityEndpoint {
+  private static final Logger logger = LoggerFactory.getLogger(AsyncAssumeIdentityEndpoint.class);
+
+  @Autowired private AssertionSigner assertionSigner;
+  @Autowired private ImpersonationService impersonationService;
+  @Autowired private Translator translator;
+
+  // The executor of the servlet async support, the grant loaders only look grants up
+  @Autowired
+  @Qualifier("applicationTaskExecutor")
+  private Executor applicationTaskExecutor;
+
+  @PostMapping(
+      path = "/assumable_identities/assume_identity",
+      produces = MediaType.APPLICATION_JSON_VALUE,
+      consumes = MediaType.APPLICATION_JSON_VALUE)
+  public CompletableFuture<ResponseEntity<AssumedIdentityDTO>> assumeIdentity(
+      @Valid @RequestBody IdentityRequestDTO body) {
+    CompletableFuture<AssumableIdentity> assumedIdentity;
+
+    try {
+      assumedIdentity = impersonationService.assumeIdentityAsync(body.getIdentity());
+    } catch (Throwable t) {
+      assumedIdentity = CompletableFuture.failedFuture(t);
+    }
+
+    // Signing is CPU heavy, it must not hold up the grant loader thread that completed the lookup
+    CompletableFuture<ResponseEntity<AssumedIdentityDTO>> result =
+        assertionSigner.isEnabled()
+            ? assumedIdentity.thenApplyAsync(this::translate, applicationTaskExecutor)
+            : assumedIdentity.thenApply(this::translate);
+
+    return result.exceptionally(
+        error -> {
+          Throwable cause =
+              error instanceof CompletionException && error.getCause() != null
+                  ? error.getCause()
+                  : error;
+
+          if (cause instanceof InsufficientPermission) {
+            throw new InsufficientPermissionResult();
+          }
+
+          if (cause instanceof Overloaded) {
+            throw new ServiceUnavailable();
+          }
+
+          if (cause instanceof ExceptionalException) {
+            throw (ExceptionalException) cause;
+          }
+
+          logger.error(cause.getMessage(), cause);
+          throw new InternalServerError();
+        });
+  }
+
+  private ResponseEntity<AssumedIdentityDTO> translate(AssumableIdentity assumed) {
+    return translator.translate(assumed, assertionSigner.sign(assumed), HttpStatus.OK);
+  }
+}
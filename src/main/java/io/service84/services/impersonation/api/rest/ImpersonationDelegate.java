@@ -14,58 +14,94 @@
 
 package io.service84.services.impersonation.api.rest;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
-import io.service84.library.authutils.services.AuthenticationService;
 import io.service84.library.exceptionalresult.models.ExceptionalException;
-import io.service84.library.standardservice.services.RequestService;
 import io.service84.services.impersonation.api.ImpersonationApiDelegate;
+import io.service84.services.impersonation.api.rest.exceptionalresults.BadRequest;
 import io.service84.services.impersonation.api.rest.exceptionalresults.InsufficientPermissionResult;
 import io.service84.services.impersonation.api.rest.exceptionalresults.InternalServerError;
 import io.service84.services.impersonation.dto.AssumableIdentityDTO;
+import io.service84.services.impersonation.dto.AssumableIdentityOutcomeDTO;
+import io.service84.services.impersonation.dto.AssumableIdentityOutcomeDTO.OutcomeEnum;
 import io.service84.services.impersonation.dto.AssumableIdentityPageDTO;
+import io.service84.services.impersonation.dto.AssumedIdentityDTO;
+import io.service84.services.impersonation.dto.ExportTrailerDTO;
+import io.service84.services.impersonation.dto.IdentitiesRequestDTO;
 import io.service84.services.impersonation.dto.IdentityRequestDTO;
-import io.service84.services.impersonation.exceptions.EntityNotFound;
+import io.service84.services.impersonation.dto.JsonWebKeySetDTO;
 import io.service84.services.impersonation.exceptions.InsufficientPermission;
 import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.services.AssertionSigner;
 import io.service84.services.impersonation.services.ImpersonationService;
+import io.service84.services.impersonation.services.SeekPage;
 import io.service84.services.impersonation.services.Translator;
 
 @Service("406F5AF5-701D-474E-BB2B-9F7363FAB7E6")
 public class ImpersonationDelegate implements ImpersonationApiDelegate {
   private static Logger logger = LoggerFactory.getLogger(ImpersonationDelegate.class);
+  private static Integer MaximumBulkSize = 10000;
+  private static String NDJSON = "application/x-ndjson";
 
+  @Autowired private AssertionSigner assertionSigner;
   @Autowired private ImpersonationService impersonationService;
-  @Autowired private AuthenticationService authenticationService;
-  @Autowired private RequestService requestService;
+  @Autowired private ObjectMapper objectMapper;
   @Autowired private Translator translator;
 
   @Override
-  public ResponseEntity<AssumableIdentityDTO> assumeIdentity(
+  public ResponseEntity<AssumedIdentityDTO> assumeIdentity(
       IdentityRequestDTO body, String authentication) {
     try {
-      logger.info(
-          "{} {} {}",
-          authenticationService.getSubject(),
-          requestService.getMethod(),
-          requestService.getURL());
       AssumableIdentity assumedIdentity = impersonationService.assumeIdentity(body.getIdentity());
-      ResponseEntity<AssumableIdentityDTO> result =
-          translator.translate(assumedIdentity, HttpStatus.OK);
-      logger.info("OK");
+      ResponseEntity<AssumedIdentityDTO> result =
+          translator.translate(
+              assumedIdentity, assertionSigner.sign(assumedIdentity), HttpStatus.OK);
+      return result;
+    } catch (InsufficientPermission e) {
+      throw new InsufficientPermissionResult();
+    } catch (ExceptionalException e) {
+      throw e;
+    } catch (Throwable t) {
+      logger.error(t.getMessage(), t);
+      throw new InternalServerError();
+    }
+  }
+
+  @Override
+  public ResponseEntity<List<AssumableIdentityDTO>> checkAssumableIdentities(
+      IdentitiesRequestDTO body, String authentication) {
+    try {
+      Set<UUID> requested = translateCheckRequest(body);
+      List<AssumableIdentity> assumableIdentities =
+          impersonationService.checkAssumableIdentities(requested);
+      ResponseEntity<List<AssumableIdentityDTO>> result =
+          translator.translate(assumableIdentities, HttpStatus.OK);
       return result;
     } catch (InsufficientPermission e) {
-      logger.info("Insufficient Permission");
       throw new InsufficientPermissionResult();
     } catch (ExceptionalException e) {
       throw e;
@@ -75,23 +111,91 @@ public class ImpersonationDelegate implements ImpersonationApiDelegate {
     }
   }
 
+  /**
+   * The export is written directly to the response as it is read so that heap use does not grow
+   * with the number of exported grants; returning null tells Spring the response is handled.
+   */
+  @Override
+  public ResponseEntity<Resource> exportAssumableIdentities(
+      String authentication, List<UUID> subjects, List<UUID> identities) {
+    try {
+      impersonationService.exportAssumableIdentities(subjects, identities, this::writeExport);
+      return null;
+    } catch (InsufficientPermission e) {
+      throw new InsufficientPermissionResult();
+    } catch (ExceptionalException e) {
+      throw e;
+    } catch (Throwable t) {
+      logger.error(t.getMessage(), t);
+      throw new InternalServerError();
+    }
+  }
+
+  /**
+   * Write one grant per line and end with a trailer holding their count. The response is committed
+   * by then, so a failure part way only stops the stream and the missing trailer tells the client
+   * the export is incomplete.
+   */
+  private void writeExport(Stream<AssumableIdentityKey> keys) {
+    HttpServletResponse response =
+        ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getResponse();
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType(NDJSON);
+    ObjectWriter writer =
+        objectMapper
+            .writerFor(AssumableIdentityDTO.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    try (JsonGenerator generator =
+        writer.getFactory().createGenerator(response.getOutputStream())) {
+      generator.setRootValueSeparator(null);
+      long count = 0;
+
+      for (AssumableIdentityKey key : (Iterable<AssumableIdentityKey>) keys::iterator) {
+        writer.writeValue(generator, translator.translate(key));
+        generator.writeRaw('\n');
+        count++;
+      }
+
+      writer
+          .forType(ExportTrailerDTO.class)
+          .writeValue(generator, new ExportTrailerDTO().count(count));
+      generator.writeRaw('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   @Override
   public ResponseEntity<AssumableIdentityDTO> grantAssumableIdentity(
       AssumableIdentityDTO body, String authentication) {
     try {
-      logger.info(
-          "{} {} {}",
-          authenticationService.getSubject(),
-          requestService.getMethod(),
-          requestService.getURL());
       AssumableIdentity assumedIdentity =
           impersonationService.grantAssumableIdentity(body.getSubject(), body.getIdentity());
       ResponseEntity<AssumableIdentityDTO> result =
           translator.translate(assumedIdentity, HttpStatus.OK);
-      logger.info("OK");
       return result;
     } catch (InsufficientPermission e) {
-      logger.info("Insufficient Permission");
+      throw new InsufficientPermissionResult();
+    } catch (ExceptionalException e) {
+      throw e;
+    } catch (Throwable t) {
+      logger.error(t.getMessage(), t);
+      throw new InternalServerError();
+    }
+  }
+
+  @Override
+  public ResponseEntity<List<AssumableIdentityOutcomeDTO>> grantAssumableIdentities(
+      List<AssumableIdentityDTO> body, String authentication) {
+    try {
+      List<AssumableIdentityKey> requested = translateBulkRequest(body);
+      List<AssumableIdentityKey> granted = impersonationService.grantAssumableIdentities(requested);
+      ResponseEntity<List<AssumableIdentityOutcomeDTO>> result =
+          translator.translateAssumableIdentityOutcomes(
+              requested, granted, OutcomeEnum.GRANTED, OutcomeEnum.ALREADY_GRANTED, HttpStatus.OK);
+      return result;
+    } catch (InsufficientPermission e) {
       throw new InsufficientPermissionResult();
     } catch (ExceptionalException e) {
       throw e;
@@ -107,22 +211,23 @@ public class ImpersonationDelegate implements ImpersonationApiDelegate {
       String pageIndex,
       Integer pageSize,
       List<UUID> subjects,
-      List<UUID> identities) {
+      List<UUID> identities,
+      String total,
+      String ifNoneMatch) {
     try {
-      logger.info(
-          "{} {} {}",
-          authenticationService.getSubject(),
-          requestService.getMethod(),
-          requestService.getURL());
-      Pageable pageable = translator.getPageable(pageIndex, pageSize);
-      Page<AssumableIdentity> assumedIdentityPage =
-          impersonationService.retrieveAssumableIdentities(subjects, identities, pageable);
+      AssumableIdentityKey after = translator.getCursor(pageIndex);
+      SeekPage<AssumableIdentityKey> assumedIdentityPage =
+          impersonationService.retrieveAssumableIdentities(
+              subjects,
+              identities,
+              after,
+              translator.getPageSize(pageSize),
+              translator.getTotal(total),
+              translator.getVersions(ifNoneMatch));
       ResponseEntity<AssumableIdentityPageDTO> result =
-          translator.translateAssumableIdentityPage(assumedIdentityPage, HttpStatus.OK);
-      logger.info("OK");
+          translator.translateAssumableIdentityPage(assumedIdentityPage, pageIndex, HttpStatus.OK);
       return result;
     } catch (InsufficientPermission e) {
-      logger.info("Insufficient Permission");
       throw new InsufficientPermissionResult();
     } catch (ExceptionalException e) {
       throw e;
@@ -132,25 +237,29 @@ public class ImpersonationDelegate implements ImpersonationApiDelegate {
     }
   }
 
+  @Override
+  public ResponseEntity<JsonWebKeySetDTO> retrieveAssertionKeys() {
+    try {
+      ResponseEntity<JsonWebKeySetDTO> result =
+          translator.translateJsonWebKeySet(assertionSigner.getPublicKeys(), HttpStatus.OK);
+      return result;
+    } catch (ExceptionalException e) {
+      throw e;
+    } catch (Throwable t) {
+      logger.error(t.getMessage(), t);
+      throw new InternalServerError();
+    }
+  }
+
   @Override
   public ResponseEntity<Void> revokeAssumableIdentity(
       AssumableIdentityDTO body, String authentication) {
     try {
-      logger.info(
-          "{} {} {}",
-          authenticationService.getSubject(),
-          requestService.getMethod(),
-          requestService.getURL());
       impersonationService.revokeAssumableIdentity(body.getSubject(), body.getIdentity());
       ResponseEntity<Void> result = translator.translate(HttpStatus.NO_CONTENT);
-      logger.info("No Content");
       return result;
     } catch (InsufficientPermission e) {
-      logger.info("Insufficient Permission");
       throw new InsufficientPermissionResult();
-    } catch (EntityNotFound e) {
-      logger.info("No Content");
-      return translator.translate(HttpStatus.NO_CONTENT);
     } catch (ExceptionalException e) {
       throw e;
     } catch (Throwable t) {
@@ -158,4 +267,53 @@ public class ImpersonationDelegate implements ImpersonationApiDelegate {
       throw new InternalServerError();
     }
   }
+
+  @Override
+  public ResponseEntity<List<AssumableIdentityOutcomeDTO>> revokeAssumableIdentities(
+      List<AssumableIdentityDTO> body, String authentication) {
+    try {
+      List<AssumableIdentityKey> requested = translateBulkRequest(body);
+      List<AssumableIdentityKey> revoked =
+          impersonationService.revokeAssumableIdentities(requested);
+      ResponseEntity<List<AssumableIdentityOutcomeDTO>> result =
+          translator.translateAssumableIdentityOutcomes(
+              requested, revoked, OutcomeEnum.REVOKED, OutcomeEnum.NOT_GRANTED, HttpStatus.OK);
+      return result;
+    } catch (InsufficientPermission e) {
+      throw new InsufficientPermissionResult();
+    } catch (ExceptionalException e) {
+      throw e;
+    } catch (Throwable t) {
+      logger.error(t.getMessage(), t);
+      throw new InternalServerError();
+    }
+  }
+
+  private Set<UUID> translateCheckRequest(IdentitiesRequestDTO body) {
+    List<UUID> identities = body.getIdentities();
+
+    if (identities == null || identities.contains(null)) {
+      throw new BadRequest("Every checked Identity must be given");
+    }
+
+    if (identities.size() > MaximumBulkSize) {
+      throw new BadRequest("At most " + MaximumBulkSize + " Identities per request");
+    }
+
+    return new LinkedHashSet<>(identities);
+  }
+
+  private List<AssumableIdentityKey> translateBulkRequest(List<AssumableIdentityDTO> body) {
+    if (body.size() > MaximumBulkSize) {
+      throw new BadRequest("At most " + MaximumBulkSize + " Assumable Identities per request");
+    }
+
+    for (AssumableIdentityDTO dto : body) {
+      if (dto == null || dto.getSubject() == null || dto.getIdentity() == null) {
+        throw new BadRequest("Every Assumable Identity requires a subject and an identity");
+      }
+    }
+
+    return translator.translateAssumableIdentityKeys(body);
+  }
 }
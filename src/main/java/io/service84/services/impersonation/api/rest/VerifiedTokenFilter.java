@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.api.rest;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.service84.services.impersonation.services.CachedAuthenticationService;
+
+/**
+ * Verifies the bearer token through the verified token cache ahead of the security chain, so every
+ * authentication lookup in the request is answered from the one verification. Invalid tokens are
+ * passed on for the security chain to reject.
+ */
+@Component("9E0B6F4A-3C52-4D1B-8B7E-5A2D6C1F0E93")
+@Order(SecurityProperties.DEFAULT_FILTER_ORDER - 1)
+public class VerifiedTokenFilter extends OncePerRequestFilter {
+  @Autowired private CachedAuthenticationService cachedAuthenticationService;
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    cachedAuthenticationService.verifyRequest(request);
+    filterChain.doFilter(request, response);
+  }
+}
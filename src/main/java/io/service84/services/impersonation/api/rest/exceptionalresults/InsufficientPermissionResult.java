@@ -46,4 +46,10 @@ public class InsufficientPermissionResult extends ExceptionalException {
   public InsufficientPermissionResult(String message, String path) {
     super(status, getError(message, path));
   }
+
+  /** The 403 is the whole answer, the stack trace would only cost time and allocation. */
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
 }
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.configurations;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import io.service84.services.impersonation.api.rest.AsyncAssumeIdentityEndpoint;
+
+@Configuration("D2446448-1330-4C88-965D-359A0E458C52")
+public class AsyncAssumeConfiguration {
+  private static final Logger logger = LoggerFactory.getLogger(AsyncAssumeConfiguration.class);
+
+  @Value("${io.service84.services.impersonation.asyncassume.enabled:false}")
+  private Boolean enabled;
+
+  // Consulted before the mapping of the generated API, so that when enabled the asynchronous
+  // endpoint serves assume requests in its place, otherwise it maps nothing
+  @Bean("464D21E6-4F75-42E7-BE83-721D02A45FFC")
+  public HandlerMapping getAsyncAssumeHandlerMapping() {
+    logger.debug("getAsyncAssumeHandlerMapping");
+    RequestMappingHandlerMapping mapping =
+        new RequestMappingHandlerMapping() {
+          @Override
+          protected boolean isHandler(Class<?> beanType) {
+            return enabled && AsyncAssumeIdentityEndpoint.class.isAssignableFrom(beanType);
+          }
+        };
+    mapping.setOrder(Ordered.HIGHEST_PRECEDENCE);
+    return mapping;
+  }
+}
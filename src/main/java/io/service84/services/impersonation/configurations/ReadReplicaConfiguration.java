@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.configurations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.service84.services.impersonation.errors.ServerError;
+import io.service84.services.impersonation.persistence.ReplicaRoutingDataSource;
+import io.service84.services.impersonation.services.ReadYourWrites;
+
+/**
+ * Replaces the auto configured data source with one that sends read-only transactions to the read
+ * replicas and everything else to the primary. The primary pool is configured as before through
+ * spring.datasource.*, each replica gets a pool of its own.
+ */
+@Configuration("9BDBB68E-0B90-46C3-AA06-EBE219D29C27")
+@ConditionalOnProperty("io.service84.services.impersonation.readreplicas.enabled")
+public class ReadReplicaConfiguration {
+  private static final Logger logger = LoggerFactory.getLogger(ReadReplicaConfiguration.class);
+
+  @Value("${io.service84.services.impersonation.readreplicas.urls:}")
+  private List<String> urls;
+
+  @Value(
+      "${io.service84.services.impersonation.readreplicas.username:${spring.datasource.username:}}")
+  private String username;
+
+  @Value(
+      "${io.service84.services.impersonation.readreplicas.password:${spring.datasource.password:}}")
+  private String password;
+
+  @Value("${io.service84.services.impersonation.readreplicas.maximumpoolsize:10}")
+  private Integer maximumPoolSize;
+
+  @Value("${io.service84.services.impersonation.readreplicas.maximumlag:PT5S}")
+  private Duration maximumLag;
+
+  @Autowired private Environment environment;
+  @Autowired private MeterRegistry meterRegistry;
+  @Autowired private ReadYourWrites readYourWrites;
+
+  private final List<HikariDataSource> pools = new ArrayList<>();
+  private ReplicaRoutingDataSource routingDataSource;
+
+  @Bean("BB687410-2174-438A-9AB4-C7D4BB1156C6")
+  @Primary
+  public DataSource getDataSource(DataSourceProperties properties) {
+    logger.debug("getDataSource");
+    List<String> replicaUrls =
+        urls.stream().filter(url -> !url.isBlank()).collect(Collectors.toList());
+
+    if (replicaUrls.isEmpty()) {
+      throw new ServerError("Read replicas are enabled but no replica URLs are configured");
+    }
+
+    HikariDataSource primary =
+        properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+    pools.add(primary);
+
+    Map<String, DataSource> replicas = new LinkedHashMap<>();
+
+    for (int index = 0; index < replicaUrls.size(); index++) {
+      HikariDataSource replica = new HikariDataSource();
+      replica.setPoolName("replica-" + index);
+      replica.setJdbcUrl(replicaUrls.get(index));
+      replica.setUsername(username);
+      replica.setPassword(password);
+      replica.setMaximumPoolSize(maximumPoolSize);
+      replica.setReadOnly(true);
+      replica.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+      replicas.put(replica.getPoolName(), replica);
+      pools.add(replica);
+    }
+
+    routingDataSource =
+        new ReplicaRoutingDataSource(primary, replicas, readYourWrites::isCallerPinned);
+    routingDataSource.afterPropertiesSet();
+    logger.info("Routing read-only transactions to {} read replicas", replicas.size());
+    return new LazyConnectionDataSourceProxy(routingDataSource);
+  }
+
+  @Scheduled(
+      fixedDelayString =
+          "${io.service84.services.impersonation.readreplicas.healthcheckinterval:PT5S}")
+  public void checkReplicaHealth() {
+    logger.debug("checkReplicaHealth");
+
+    if (routingDataSource != null) {
+      routingDataSource.checkHealth(maximumLag);
+    }
+  }
+
+  @PreDestroy
+  public void destroy() {
+    logger.debug("destroy");
+    pools.forEach(HikariDataSource::close);
+  }
+}
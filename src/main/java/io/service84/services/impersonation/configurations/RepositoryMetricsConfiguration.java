@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.configurations;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+/** Times every call made through the Assumable Identity repository, including its transaction. */
+@Configuration("00F08442-4136-4D40-AB95-C822A3CB2E42")
+public class RepositoryMetricsConfiguration {
+  private static final Logger logger =
+      LoggerFactory.getLogger(RepositoryMetricsConfiguration.class);
+  private static final String RepositoryCalls = "impersonation.repository.calls";
+
+  /** The timers are built once per method and outcome, building one looks it up in the registry. */
+  static class RepositoryTimer implements MethodInterceptor {
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final Map<Method, Timer> successes = new ConcurrentHashMap<>();
+    private final Map<Method, Timer> failures = new ConcurrentHashMap<>();
+
+    RepositoryTimer(ObjectProvider<MeterRegistry> meterRegistry) {
+      this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+      long start = System.nanoTime();
+      Boolean succeeded = false;
+
+      try {
+        Object result = invocation.proceed();
+        succeeded = true;
+        return result;
+      } finally {
+        Timer timer =
+            succeeded
+                ? getTimer(successes, invocation.getMethod(), "success")
+                : getTimer(failures, invocation.getMethod(), "failure");
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private Timer getTimer(Map<Method, Timer> timers, Method method, String outcome) {
+      return timers.computeIfAbsent(
+          method,
+          key ->
+              Timer.builder(RepositoryCalls)
+                  .description("Assumable Identity repository calls")
+                  .tag("method", key.getName())
+                  .tag("outcome", outcome)
+                  .register(meterRegistry.getObject()));
+    }
+  }
+
+  // Static because it is a BeanPostProcessor, the MeterRegistry is only resolved on first use so
+  // that it is not created before the metrics auto configuration has customized it
+  @Bean("A5712002-B709-4FEE-ACE5-33E9B32B088B")
+  public static BeanPostProcessor getRepositoryMetricsPostProcessor(
+      ObjectProvider<MeterRegistry> meterRegistry) {
+    logger.debug("getRepositoryMetricsPostProcessor");
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof AssumableIdentityRepository && bean instanceof Advised) {
+          logger.debug("postProcessAfterInitialization");
+          ((Advised) bean).addAdvice(0, new RepositoryTimer(meterRegistry));
+        }
+
+        return bean;
+      }
+    };
+  }
+}
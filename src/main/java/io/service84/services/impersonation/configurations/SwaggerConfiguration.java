@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.configurations;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+
+import springfox.documentation.swagger2.annotations.EnableSwagger2;
+
+/**
+ * Springfox scans every request mapping and model at startup, a cost that only pays off where the
+ * Swagger documentation is read. The prod profile turns it off.
+ */
+@Configuration("8D31865F-7873-4AB0-9D3C-C96841E39C99")
+@ConditionalOnProperty(
+    value = "io.service84.services.impersonation.swagger.enabled",
+    matchIfMissing = true)
+@EnableSwagger2
+public class SwaggerConfiguration {}
@@ -15,12 +15,14 @@
 package io.service84.services.impersonation.configurations;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.catalina.connector.Connector;
-import org.apache.tomcat.util.threads.ThreadPoolExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
 import org.springframework.boot.web.server.WebServerFactoryCustomizer;
@@ -29,10 +31,40 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.ContextClosedEvent;
 
+import io.service84.services.impersonation.errors.ServerError;
+
 @Configuration("283C8747-76B6-4CC4-8095-899490314E02")
 public class TomcatConfig {
   private static final Logger logger = LoggerFactory.getLogger(TomcatConfig.class);
 
+  @Value("${io.service84.services.impersonation.virtualthreads.enabled:false}")
+  private Boolean virtualThreads;
+
+  /**
+   * An executor that runs every task on a new virtual thread. It is looked up reflectively so the
+   * service still builds and runs on Java 11, where enabling virtual threads fails at startup.
+   *
+   * <p>Before Java 24 a virtual thread that blocks inside a synchronized block pins its carrier
+   * thread, and the PostgreSQL driver in use reads from the socket inside synchronized methods. An
+   * assume that queries the database therefore holds one of the few carrier threads, as many as
+   * there are cores, for the whole query, so fewer queries run at once than on the worker pool.
+   * Virtual threads stay off by default, RequestExecutorBenchmark measures the assume query on both
+   * executors.
+   *
+   * <p>The image runs Java 11, so the mode is inert there: enabling it fails at startup. No
+   * comparison with the worker pool has been recorded, the benchmark has only been run on Java 17,
+   * which has no virtual threads. Moving the image to Java 21 or later is a separate change, the
+   * Spring Boot 2.2 and Hibernate 5.4 in use predate it.
+   */
+  static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new ServerError("Virtual threads require Java 21 or later", e);
+    }
+  }
+
   // This is part of implementing a graceful shutdown
   // per the comments on https://github.com/spring-projects/spring-boot/issues/4657
   // This can be removed when we upgrade to Spring 2.3+ because
@@ -58,6 +90,18 @@ public class TomcatConfig {
       public void customize(TomcatServletWebServerFactory factory) {
         logger.debug("customize");
         factory.addConnectorCustomizers(gracefulShutdown);
+
+        // Requests, and the repository calls they make, run on virtual threads instead of the
+        // bounded Tomcat worker pool, so requests blocked on JDBC no longer hold a platform thread
+        if (virtualThreads) {
+          if (Runtime.version().feature() < 24) {
+            logger.warn(
+                "Virtual threads pin their carrier threads during JDBC calls before Java 24");
+          }
+
+          factory.addConnectorCustomizers(
+              connector -> connector.getProtocolHandler().setExecutor(newVirtualThreadExecutor()));
+        }
       }
     };
   }
@@ -84,13 +128,13 @@ public class TomcatConfig {
       logger.debug("onApplicationEvent");
       this.connector.pause();
       Executor executor = this.connector.getProtocolHandler().getExecutor();
-      if (executor instanceof ThreadPoolExecutor) {
+      if (executor instanceof ExecutorService) {
         try {
-          ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executor;
-          threadPoolExecutor.shutdown();
-          if (!threadPoolExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+          ExecutorService executorService = (ExecutorService) executor;
+          executorService.shutdown();
+          if (!executorService.awaitTermination(30, TimeUnit.SECONDS)) {
             logger.warn(
-                "Tomcat thread pool did not shut down gracefully within "
+                "Tomcat executor did not shut down gracefully within "
                     + "30 seconds. Proceeding with forceful shutdown");
           }
         } catch (InterruptedException ex) {
@@ -16,15 +16,28 @@ package io.service84.services.impersonation.exceptions;
 
 import java.util.function.Supplier;
 
+/**
+ * Denials are an expected outcome rather than a fault, and frequent under abuse, so they carry no
+ * stack trace and a single shared instance is thrown.
+ */
 public class InsufficientPermission extends Exception {
   private static final long serialVersionUID = 1L;
+  private static final InsufficientPermission Instance = new InsufficientPermission();
+
+  public static InsufficientPermission instance() {
+    return Instance;
+  }
 
   public static Supplier<InsufficientPermission> supplier() {
     return new Supplier<>() {
       @Override
       public InsufficientPermission get() {
-        return new InsufficientPermission();
+        return Instance;
       }
     };
   }
+
+  private InsufficientPermission() {
+    super(null, null, false, false);
+  }
 }
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.exceptions;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * A denial thrown from a completion stage as is, so that the stages depending on it pass it on
+ * rather than wrapping it in a completion exception each. CompletionException offers no constructor
+ * without a stack trace, so filling one in is a no-op. Neither does it offer one without
+ * suppression, so unlike InsufficientPermission each denial creates its own instance, suppressed
+ * exceptions added to a shared one would accumulate across requests.
+ */
+public class InsufficientPermissionCompletion extends CompletionException {
+  private static final long serialVersionUID = 1L;
+
+  public InsufficientPermissionCompletion() {
+    super(InsufficientPermission.instance());
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
@@ -14,17 +14,19 @@
 
 package io.service84.services.impersonation.exceptions;
 
-import java.util.function.Supplier;
-
-public class EntityNotFound extends Exception {
+/**
+ * Work was rejected because the queue it waits in is full. Rejections are frequent exactly when the
+ * service is busiest, so they carry no stack trace and a single shared instance is thrown.
+ */
+public class Overloaded extends Exception {
   private static final long serialVersionUID = 1L;
+  private static final Overloaded Instance = new Overloaded();
+
+  public static Overloaded instance() {
+    return Instance;
+  }
 
-  public static Supplier<EntityNotFound> supplier() {
-    return new Supplier<>() {
-      @Override
-      public EntityNotFound get() {
-        return new EntityNotFound();
-      }
-    };
+  private Overloaded() {
+    super(null, null, false, false);
   }
 }
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.persistence;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routes read-only transactions round robin to the healthy replicas and everything else to the
+ * primary. A replica is unhealthy while it cannot be reached or its replay lags too far behind.
+ * When no replica is healthy, or the primary is required, reads go to the primary as well. Only
+ * correct behind a LazyConnectionDataSourceProxy, so that the connection is chosen once the
+ * transaction has been marked read-only.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+  private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+  private static final String Primary = "primary";
+
+  // Zero while every received change has been replayed, so an idle replica does not appear to lag
+  private static final String ReplayLag =
+      "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+          + " ELSE coalesce(extract(epoch FROM now() - pg_last_xact_replay_timestamp()), 0)"
+          + " END";
+
+  private static class Replica {
+    private final String name;
+    private final DataSource dataSource;
+    private volatile Boolean healthy = true;
+
+    private Replica(String name, DataSource dataSource) {
+      this.name = name;
+      this.dataSource = dataSource;
+    }
+  }
+
+  private final Replica[] replicas;
+  private final AtomicInteger next = new AtomicInteger();
+  private final BooleanSupplier primaryRequired;
+
+  /**
+   * @param replicas the replica data sources by name
+   * @param primaryRequired whether the current read-only transaction must read from the primary
+   */
+  public ReplicaRoutingDataSource(
+      DataSource primary, Map<String, DataSource> replicas, BooleanSupplier primaryRequired) {
+    Map<Object, Object> targets = new HashMap<>(replicas);
+    targets.put(Primary, primary);
+    setTargetDataSources(targets);
+    setDefaultTargetDataSource(primary);
+    this.replicas =
+        replicas.entrySet().stream()
+            .map(entry -> new Replica(entry.getKey(), entry.getValue()))
+            .toArray(Replica[]::new);
+    this.primaryRequired = primaryRequired;
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+        || primaryRequired.getAsBoolean()) {
+      return Primary;
+    }
+
+    int start = next.getAndIncrement();
+
+    for (int offset = 0; offset < replicas.length; offset++) {
+      Replica replica = replicas[Math.floorMod(start + offset, replicas.length)];
+
+      if (replica.healthy) {
+        return replica.name;
+      }
+    }
+
+    return Primary;
+  }
+
+  /** Mark each replica healthy if it answers and its replay lag is at most maximumLag. */
+  public void checkHealth(Duration maximumLag) {
+    for (Replica replica : replicas) {
+      Boolean healthy;
+
+      try (Connection connection = replica.dataSource.getConnection();
+          Statement statement = connection.createStatement();
+          ResultSet lag = statement.executeQuery(ReplayLag)) {
+        lag.next();
+        healthy = lag.getDouble(1) * 1000 <= maximumLag.toMillis();
+      } catch (SQLException e) {
+        logger.debug("Replica {} health check failed", replica.name, e);
+        healthy = false;
+      }
+
+      if (!healthy.equals(replica.healthy)) {
+        logger.warn("Replica {} is now {}", replica.name, healthy ? "healthy" : "unhealthy");
+      }
+
+      replica.healthy = healthy;
+    }
+  }
+}
@@ -22,6 +22,9 @@ import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.envers.Audited;
@@ -34,6 +37,12 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 @Entity
 @Audited
 @EntityListeners(AuditingEntityListener.class)
+@Table(
+    uniqueConstraints =
+        @UniqueConstraint(
+            name = "assumable_identity_subject_identity_key",
+            columnNames = {"subject", "identity"}),
+    indexes = @Index(name = "assumable_identity_identity_idx", columnList = "identity"))
 public class AssumableIdentity {
   @Id
   @GeneratedValue(generator = "UUID")
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.persistence.model;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/** The (subject, identity) pair that uniquely identifies an Assumable Identity grant. */
+public class AssumableIdentityKey {
+  private final UUID subject;
+  private final UUID identity;
+
+  public AssumableIdentityKey(UUID subject, UUID identity) {
+    this.subject = subject;
+    this.identity = identity;
+  }
+
+  public UUID getIdentity() {
+    return identity;
+  }
+
+  public UUID getSubject() {
+    return subject;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+
+    if (!(other instanceof AssumableIdentityKey)) {
+      return false;
+    }
+
+    AssumableIdentityKey that = (AssumableIdentityKey) other;
+    return Objects.equals(subject, that.subject) && Objects.equals(identity, that.identity);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(subject, identity);
+  }
+
+  @Override
+  public String toString() {
+    return subject + ":" + identity;
+  }
+}
@@ -14,17 +14,38 @@
 
 package io.service84.services.impersonation.persistence.repository;
 
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
 
 @Repository("D032E760-D53B-41BB-B907-DED8C8A38E2A")
 public interface AssumableIdentityRepository
-    extends JpaRepository<AssumableIdentity, UUID>, JpaSpecificationExecutor<AssumableIdentity> {
+    extends JpaRepository<AssumableIdentity, UUID>,
+        JpaSpecificationExecutor<AssumableIdentity>,
+        AssumableIdentityRepositoryCustom {
+  @Transactional(readOnly = true)
+  boolean existsBySubjectAndIdentity(UUID subject, UUID identity);
+
+  @Transactional(readOnly = true)
   Optional<AssumableIdentity> findBySubjectAndIdentity(UUID subject, UUID identity);
+
+  @Query(
+      "select new io.service84.services.impersonation.persistence.model.AssumableIdentityKey("
+          + "a.subject, a.identity) from AssumableIdentity a")
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "10000"))
+  Stream<AssumableIdentityKey> streamAllKeys();
 }
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.persistence.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+
+public interface AssumableIdentityRepositoryCustom {
+  /**
+   * Insert the grant and its audit revision in a single statement unless the pair is already
+   * granted.
+   *
+   * @return the number of grants inserted, 0 or 1
+   */
+  int insertIfAbsent(UUID subject, UUID identity);
+
+  /**
+   * Insert every grant that is not already present in a single statement, sharing one audit
+   * revision.
+   *
+   * @return the pairs that were inserted
+   */
+  List<AssumableIdentityKey> insertAllIfAbsent(Collection<AssumableIdentityKey> keys);
+
+  /**
+   * Delete the grant and write its audit revision in a single statement if the pair is granted.
+   *
+   * @return the number of grants deleted, 0 or 1
+   */
+  int deleteByKey(UUID subject, UUID identity);
+
+  /**
+   * Delete every present grant in a single statement, sharing one audit revision.
+   *
+   * @return the pairs that were deleted
+   */
+  List<AssumableIdentityKey> deleteAllByKey(Collection<AssumableIdentityKey> keys);
+
+  /**
+   * Move at most limit of the oldest queued audit events into their revisions in a single
+   * statement. Nothing is moved while another writer is draining.
+   *
+   * @return the number of audit events moved
+   */
+  int drainAuditOutbox(int limit);
+
+  /** Find which of the given pairs are granted in a single statement. */
+  List<AssumableIdentityKey> findAllKeysIn(Collection<AssumableIdentityKey> keys);
+
+  /** Find at most limit of the most recently changed pairs. */
+  List<AssumableIdentityKey> findRecentKeys(int limit);
+
+  /** Find which of the given identities are granted to the subject in a single statement. */
+  List<UUID> findIdentitiesIn(UUID subject, Collection<UUID> identities);
+
+  /**
+   * Find at most limit matching pairs ordered by (subject, identity) that sort after the given
+   * pair, or from the start when it is null.
+   */
+  List<AssumableIdentityKey> findAllKeysAfter(
+      Specification<AssumableIdentity> specification, AssumableIdentityKey after, int limit);
+
+  /**
+   * Estimate the number of grants matching the subjects and identities from the planner statistics
+   * without counting them, an empty or null list matches everything.
+   */
+  long estimateCount(List<UUID> subjects, List<UUID> identities);
+
+  /**
+   * Identify the grants visible to the next statement by the number of changes committed to them,
+   * without reading the grants. Equal versions see equal grants on the primary and on every
+   * replica.
+   */
+  String findVersion();
+
+  /**
+   * Stream every matching pair from a server side cursor, the stream must be consumed and closed
+   * within the surrounding transaction.
+   */
+  Stream<AssumableIdentityKey> streamAllKeys(Specification<AssumableIdentity> specification);
+}
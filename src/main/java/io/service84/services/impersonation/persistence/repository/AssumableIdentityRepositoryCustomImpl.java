@@ -0,0 +1,494 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.persistence.repository;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.hibernate.jpa.QueryHints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.AuditorAware;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.persistence.model.AssumableIdentity_;
+
+/**
+ * Statements Spring Data cannot derive. Native statements for the write paths. AssumableIdentity is
+ * audited by Envers, so each statement writes the matching revinfo and assumable_identity_aud rows
+ * itself, or queues them in the audit outbox when it is enabled, and counts the change in the
+ * version of the grants.
+ */
+public class AssumableIdentityRepositoryCustomImpl implements AssumableIdentityRepositoryCustom {
+  private static final Logger logger =
+      LoggerFactory.getLogger(AssumableIdentityRepositoryCustomImpl.class);
+  private static final Short RevisionTypeAdd = 0;
+  private static final Short RevisionTypeDelete = 2;
+  private static final Pattern PlanRows = Pattern.compile(" rows=(\\d+) ");
+
+  // Audits the rows of the inserted CTE with a new revision, parameters: revtstmp, revtype
+  private static final String RevisionAuditInserted =
+      ", revision AS ("
+          + " INSERT INTO revinfo (rev, revtstmp)"
+          + " SELECT nextval('hibernate_sequence'), ?::bigint"
+          + " WHERE EXISTS (SELECT 1 FROM inserted)"
+          + " RETURNING rev"
+          + "), audited AS ("
+          + " INSERT INTO assumable_identity_aud"
+          + " (id, rev, revtype, created_by, created_date, identity,"
+          + " modified_by, modified_date, subject)"
+          + " SELECT inserted.id, revision.rev, ?::smallint, inserted.created_by,"
+          + " inserted.created_date, inserted.identity, inserted.modified_by,"
+          + " inserted.modified_date, inserted.subject"
+          + " FROM inserted, revision"
+          + ")";
+
+  // Audits the rows of the deleted CTE with a new revision, parameters: revtstmp, revtype
+  private static final String RevisionAuditDeleted =
+      ", revision AS ("
+          + " INSERT INTO revinfo (rev, revtstmp)"
+          + " SELECT nextval('hibernate_sequence'), ?::bigint"
+          + " WHERE EXISTS (SELECT 1 FROM deleted)"
+          + " RETURNING rev"
+          + "), audited AS ("
+          + " INSERT INTO assumable_identity_aud (id, rev, revtype)"
+          + " SELECT deleted.id, revision.rev, ?::smallint FROM deleted, revision"
+          + ")";
+
+  // Queues the rows of the inserted CTE in the audit outbox, parameters: revtstmp, revtype
+  private static final String OutboxAuditInserted =
+      ", audited AS ("
+          + " INSERT INTO assumable_identity_audit_outbox"
+          + " (revtstmp, revtype, id, created_by, created_date, identity,"
+          + " modified_by, modified_date, subject)"
+          + " SELECT ?::bigint, ?::smallint, inserted.id, inserted.created_by,"
+          + " inserted.created_date, inserted.identity, inserted.modified_by,"
+          + " inserted.modified_date, inserted.subject"
+          + " FROM inserted"
+          + ")";
+
+  // Queues the rows of the deleted CTE in the audit outbox, parameters: revtstmp, revtype
+  private static final String OutboxAuditDeleted =
+      ", audited AS ("
+          + " INSERT INTO assumable_identity_audit_outbox (revtstmp, revtype, id)"
+          + " SELECT ?::bigint, ?::smallint, deleted.id FROM deleted"
+          + ")";
+
+  // Counts a change to the grants when the inserted CTE holds a row
+  private static final String VersionInserted =
+      ", versioned AS ("
+          + " UPDATE assumable_identity_version SET version = version + 1"
+          + " WHERE EXISTS (SELECT 1 FROM inserted)"
+          + ")";
+
+  // Counts a change to the grants when the deleted CTE holds a row
+  private static final String VersionDeleted =
+      ", versioned AS ("
+          + " UPDATE assumable_identity_version SET version = version + 1"
+          + " WHERE EXISTS (SELECT 1 FROM deleted)"
+          + ")";
+
+  private static final String InsertIfAbsent =
+      "WITH inserted AS ("
+          + " INSERT INTO assumable_identity"
+          + " (id, created_by, created_date, modified_by, modified_date, subject, identity)"
+          + " VALUES (?::uuid, ?::varchar, ?::timestamp, ?::varchar, ?::timestamp,"
+          + " ?::uuid, ?::uuid)"
+          + " ON CONFLICT (subject, identity) DO NOTHING"
+          + " RETURNING *"
+          + ")"
+          + VersionInserted
+          + "%s"
+          + " SELECT count(*) FROM inserted";
+
+  private static final String InsertAllIfAbsent =
+      "WITH requested AS ("
+          + " SELECT * FROM unnest(?::uuid[], ?::uuid[], ?::uuid[])"
+          + " AS requested (id, subject, identity)"
+          + "), inserted AS ("
+          + " INSERT INTO assumable_identity"
+          + " (id, created_by, created_date, modified_by, modified_date, subject, identity)"
+          + " SELECT id, ?::varchar, ?::timestamp, ?::varchar, ?::timestamp, subject, identity"
+          + " FROM requested"
+          + " ON CONFLICT (subject, identity) DO NOTHING"
+          + " RETURNING *"
+          + ")"
+          + VersionInserted
+          + "%s"
+          + " SELECT subject, identity FROM inserted";
+
+  private static final String DeleteByKey =
+      "WITH deleted AS ("
+          + " DELETE FROM assumable_identity"
+          + " WHERE subject = ?::uuid AND identity = ?::uuid"
+          + " RETURNING *"
+          + ")"
+          + VersionDeleted
+          + "%s"
+          + " SELECT count(*) FROM deleted";
+
+  private static final String DeleteAllByKey =
+      "WITH requested AS ("
+          + " SELECT * FROM unnest(?::uuid[], ?::uuid[]) AS requested (subject, identity)"
+          + "), deleted AS ("
+          + " DELETE FROM assumable_identity USING requested"
+          + " WHERE assumable_identity.subject = requested.subject"
+          + " AND assumable_identity.identity = requested.identity"
+          + " RETURNING assumable_identity.*"
+          + ")"
+          + VersionDeleted
+          + "%s"
+          + " SELECT subject, identity FROM deleted";
+
+  private static final String FindAllKeysIn =
+      "SELECT DISTINCT assumable_identity.subject, assumable_identity.identity"
+          + " FROM assumable_identity"
+          + " JOIN unnest(?::uuid[], ?::uuid[]) AS requested (subject, identity)"
+          + " ON assumable_identity.subject = requested.subject"
+          + " AND assumable_identity.identity = requested.identity";
+
+  // The counter every grant and revoke increments, a single row read by its primary key
+  private static final String FindVersion =
+      "SELECT version::text FROM assumable_identity_version WHERE id = 1";
+
+  // Reads the modified_date index backwards instead of sorting the table
+  private static final String FindRecentKeys =
+      "SELECT subject, identity FROM assumable_identity ORDER BY modified_date DESC LIMIT ?";
+
+  private static final String FindIdentitiesIn =
+      "SELECT identity FROM assumable_identity"
+          + " WHERE subject = ?::uuid AND identity = ANY(?::uuid[])";
+
+  // Moves the oldest outbox events into revinfo and assumable_identity_aud, one revision per
+  // originating transaction in the order they were queued. The advisory lock keeps concurrent
+  // writers from interleaving revisions. Parameters: lock, limit
+  private static final String DrainAuditOutbox =
+      "WITH writer AS ("
+          + " SELECT pg_try_advisory_xact_lock(?) AS locked"
+          + "), batch AS ("
+          + " DELETE FROM assumable_identity_audit_outbox WHERE seq IN ("
+          + " SELECT seq FROM assumable_identity_audit_outbox"
+          + " WHERE (SELECT locked FROM writer)"
+          + " ORDER BY seq LIMIT ?"
+          + " ) RETURNING *"
+          + "), numbered AS ("
+          + " SELECT txid, revtstmp, nextval('hibernate_sequence') AS rev FROM ("
+          + " SELECT txid, min(seq) AS first, max(revtstmp) AS revtstmp"
+          + " FROM batch GROUP BY txid ORDER BY first"
+          + " ) ordered"
+          + "), revision AS ("
+          + " INSERT INTO revinfo (rev, revtstmp) SELECT rev, revtstmp FROM numbered"
+          + "), audited AS ("
+          + " INSERT INTO assumable_identity_aud"
+          + " (id, rev, revtype, created_by, created_date, identity,"
+          + " modified_by, modified_date, subject)"
+          + " SELECT batch.id, numbered.rev, batch.revtype, batch.created_by,"
+          + " batch.created_date, batch.identity, batch.modified_by,"
+          + " batch.modified_date, batch.subject"
+          + " FROM batch JOIN numbered USING (txid)"
+          + ")"
+          + " SELECT count(*) FROM batch";
+
+  // Arbitrary application wide key of the advisory lock held while draining the audit outbox
+  private static final Long AuditOutboxLock = 0x5e84_a0d1_7000_0001L;
+
+  private static final RowMapper<AssumableIdentityKey> KeyMapper =
+      (resultSet, rowNumber) ->
+          new AssumableIdentityKey(
+              resultSet.getObject("subject", UUID.class),
+              resultSet.getObject("identity", UUID.class));
+
+  @Value("${io.service84.services.impersonation.export.fetchsize:1000}")
+  private Integer exportFetchSize;
+
+  @Value("${io.service84.services.impersonation.auditoutbox.enabled:false}")
+  private Boolean auditOutboxEnabled;
+
+  @Autowired private AuditorAware<String> auditorAware;
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @PersistenceContext private EntityManager entityManager;
+
+  private String insertIfAbsentStatement;
+  private String insertAllIfAbsentStatement;
+  private String deleteByKeyStatement;
+  private String deleteAllByKeyStatement;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+    String auditInserted = auditOutboxEnabled ? OutboxAuditInserted : RevisionAuditInserted;
+    String auditDeleted = auditOutboxEnabled ? OutboxAuditDeleted : RevisionAuditDeleted;
+    insertIfAbsentStatement = String.format(InsertIfAbsent, auditInserted);
+    insertAllIfAbsentStatement = String.format(InsertAllIfAbsent, auditInserted);
+    deleteByKeyStatement = String.format(DeleteByKey, auditDeleted);
+    deleteAllByKeyStatement = String.format(DeleteAllByKey, auditDeleted);
+  }
+
+  @Override
+  @Transactional
+  public int insertIfAbsent(UUID subject, UUID identity) {
+    String auditor = auditorAware.getCurrentAuditor().orElse(null);
+    LocalDateTime now = LocalDateTime.now();
+    return jdbcTemplate.queryForObject(
+        insertIfAbsentStatement,
+        Integer.class,
+        UUID.randomUUID(),
+        auditor,
+        now,
+        auditor,
+        now,
+        subject,
+        identity,
+        System.currentTimeMillis(),
+        RevisionTypeAdd);
+  }
+
+  @Override
+  @Transactional
+  public List<AssumableIdentityKey> insertAllIfAbsent(Collection<AssumableIdentityKey> keys) {
+    String auditor = auditorAware.getCurrentAuditor().orElse(null);
+    LocalDateTime now = LocalDateTime.now();
+    UUID[] ids = new UUID[keys.size()];
+
+    for (int index = 0; index < ids.length; index++) {
+      ids[index] = UUID.randomUUID();
+    }
+
+    return jdbcTemplate.query(
+        insertAllIfAbsentStatement,
+        statement -> {
+          statement.setArray(1, uuidArray(statement, ids));
+          statement.setArray(2, subjectArray(statement, keys));
+          statement.setArray(3, identityArray(statement, keys));
+          statement.setString(4, auditor);
+          statement.setObject(5, now);
+          statement.setString(6, auditor);
+          statement.setObject(7, now);
+          statement.setLong(8, System.currentTimeMillis());
+          statement.setShort(9, RevisionTypeAdd);
+        },
+        KeyMapper);
+  }
+
+  @Override
+  @Transactional
+  public int deleteByKey(UUID subject, UUID identity) {
+    return jdbcTemplate.queryForObject(
+        deleteByKeyStatement,
+        Integer.class,
+        subject,
+        identity,
+        System.currentTimeMillis(),
+        RevisionTypeDelete);
+  }
+
+  @Override
+  @Transactional
+  public List<AssumableIdentityKey> deleteAllByKey(Collection<AssumableIdentityKey> keys) {
+    return jdbcTemplate.query(
+        deleteAllByKeyStatement,
+        statement -> {
+          statement.setArray(1, subjectArray(statement, keys));
+          statement.setArray(2, identityArray(statement, keys));
+          statement.setLong(3, System.currentTimeMillis());
+          statement.setShort(4, RevisionTypeDelete);
+        },
+        KeyMapper);
+  }
+
+  @Override
+  @Transactional
+  public int drainAuditOutbox(int limit) {
+    return jdbcTemplate.queryForObject(DrainAuditOutbox, Integer.class, AuditOutboxLock, limit);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<AssumableIdentityKey> findAllKeysIn(Collection<AssumableIdentityKey> keys) {
+    return jdbcTemplate.query(
+        FindAllKeysIn,
+        statement -> {
+          statement.setArray(1, subjectArray(statement, keys));
+          statement.setArray(2, identityArray(statement, keys));
+        },
+        KeyMapper);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<AssumableIdentityKey> findRecentKeys(int limit) {
+    return jdbcTemplate.query(FindRecentKeys, KeyMapper, limit);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<UUID> findIdentitiesIn(UUID subject, Collection<UUID> identities) {
+    return jdbcTemplate.query(
+        FindIdentitiesIn,
+        statement -> {
+          statement.setObject(1, subject);
+          statement.setArray(2, uuidArray(statement, identities.toArray(new UUID[0])));
+        },
+        (resultSet, rowNumber) -> resultSet.getObject("identity", UUID.class));
+  }
+
+  @Override
+  public List<AssumableIdentityKey> findAllKeysAfter(
+      Specification<AssumableIdentity> specification, AssumableIdentityKey after, int limit) {
+    CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<AssumableIdentityKey> query = builder.createQuery(AssumableIdentityKey.class);
+    Root<AssumableIdentity> root = query.from(AssumableIdentity.class);
+    Predicate predicate = specification.toPredicate(root, query, builder);
+
+    if (predicate == null) {
+      predicate = builder.conjunction();
+    }
+
+    if (after != null) {
+      // Equivalent to (subject, identity) > (after.subject, after.identity) with the leading
+      // bound on subject stated separately so that it is an index range condition
+      predicate =
+          builder.and(
+              predicate,
+              builder.greaterThanOrEqualTo(
+                  root.get(AssumableIdentity_.subject), after.getSubject()),
+              builder.or(
+                  builder.greaterThan(root.get(AssumableIdentity_.subject), after.getSubject()),
+                  builder.greaterThan(root.get(AssumableIdentity_.identity), after.getIdentity())));
+    }
+
+    query
+        .select(
+            builder.construct(
+                AssumableIdentityKey.class,
+                root.get(AssumableIdentity_.subject),
+                root.get(AssumableIdentity_.identity)))
+        .where(predicate)
+        .orderBy(
+            builder.asc(root.get(AssumableIdentity_.subject)),
+            builder.asc(root.get(AssumableIdentity_.identity)));
+    return entityManager
+        .createQuery(query)
+        .setMaxResults(limit)
+        .setHint(QueryHints.HINT_READONLY, true)
+        .getResultList();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public String findVersion() {
+    return jdbcTemplate.queryForObject(FindVersion, String.class);
+  }
+
+  @Override
+  public long estimateCount(List<UUID> subjects, List<UUID> identities) {
+    List<String> conditions = new ArrayList<>();
+    List<UUID[]> parameters = new ArrayList<>();
+
+    if (subjects != null && !subjects.isEmpty()) {
+      conditions.add("subject = ANY (?::uuid[])");
+      parameters.add(subjects.toArray(new UUID[0]));
+    }
+
+    if (identities != null && !identities.isEmpty()) {
+      conditions.add("identity = ANY (?::uuid[])");
+      parameters.add(identities.toArray(new UUID[0]));
+    }
+
+    String explain = "EXPLAIN SELECT 1 FROM assumable_identity";
+
+    if (!conditions.isEmpty()) {
+      explain += " WHERE " + String.join(" AND ", conditions);
+    }
+
+    String plan =
+        jdbcTemplate.query(
+            explain,
+            statement -> {
+              for (int index = 0; index < parameters.size(); index++) {
+                statement.setArray(index + 1, uuidArray(statement, parameters.get(index)));
+              }
+            },
+            resultSet -> resultSet.next() ? resultSet.getString(1) : "");
+    Matcher matcher = PlanRows.matcher(plan);
+    return matcher.find() ? Long.parseLong(matcher.group(1)) : 0L;
+  }
+
+  @Override
+  public Stream<AssumableIdentityKey> streamAllKeys(
+      Specification<AssumableIdentity> specification) {
+    CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<AssumableIdentityKey> query = builder.createQuery(AssumableIdentityKey.class);
+    Root<AssumableIdentity> root = query.from(AssumableIdentity.class);
+    Predicate predicate = specification.toPredicate(root, query, builder);
+
+    if (predicate == null) {
+      predicate = builder.conjunction();
+    }
+
+    query
+        .select(
+            builder.construct(
+                AssumableIdentityKey.class,
+                root.get(AssumableIdentity_.subject),
+                root.get(AssumableIdentity_.identity)))
+        .where(predicate);
+    return entityManager
+        .createQuery(query)
+        .setHint(QueryHints.HINT_FETCH_SIZE, exportFetchSize)
+        .setHint(QueryHints.HINT_READONLY, true)
+        .getResultStream();
+  }
+
+  private static Array identityArray(
+      PreparedStatement statement, Collection<AssumableIdentityKey> keys) throws SQLException {
+    return uuidArray(
+        statement, keys.stream().map(AssumableIdentityKey::getIdentity).toArray(UUID[]::new));
+  }
+
+  private static Array subjectArray(
+      PreparedStatement statement, Collection<AssumableIdentityKey> keys) throws SQLException {
+    return uuidArray(
+        statement, keys.stream().map(AssumableIdentityKey::getSubject).toArray(UUID[]::new));
+  }
+
+  private static Array uuidArray(PreparedStatement statement, UUID[] values) throws SQLException {
+    return statement.getConnection().createArrayOf("uuid", values);
+  }
+}
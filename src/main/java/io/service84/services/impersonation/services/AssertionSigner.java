@@ -0,0 +1,231 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.stereotype.Service;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+
+import io.service84.services.impersonation.errors.ServerError;
+import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+
+/**
+ * Signs short lived RS256 assertions of assumed identities, so that other services can verify an
+ * impersonation offline against the published keys instead of asking this service again. Every
+ * instance must sign with the same configured key. The public keys of previous private keys stay
+ * published while a rotation is rolled out and their assertions expire. Only the dev and cds
+ * profiles may start without a key, each instance then generates its own.
+ */
+@Service("2E7F109F-DCA1-4476-99C1-8BF7FCF9B45E")
+public class AssertionSigner {
+  private static final Logger logger = LoggerFactory.getLogger(AssertionSigner.class);
+  private static final String IdentityClaim = "identity";
+  private static final Integer GeneratedKeySize = 2048;
+  private static final Profiles GeneratedKeyProfiles = Profiles.of("dev", "cds");
+
+  @Value("${io.service84.services.impersonation.assertion.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.services.impersonation.assertion.issuer:impersonation.api.service84.io}")
+  private String issuer;
+
+  @Value("${io.service84.services.impersonation.assertion.lifetime:PT5M}")
+  private Duration lifetime;
+
+  @Value("${io.service84.services.impersonation.assertion.privatekey:}")
+  private String privateKey;
+
+  @Value("${io.service84.services.impersonation.assertion.keyid:}")
+  private String keyId;
+
+  @Value("${io.service84.services.impersonation.assertion.previouspublickeys:}")
+  private List<String> previousPublicKeys;
+
+  @Autowired private Environment environment;
+
+  private Map<String, RSAPublicKey> publicKeys = Collections.emptyMap();
+  private Algorithm algorithm;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+
+    if (!enabled) {
+      return;
+    }
+
+    if (privateKey.isBlank() && !environment.acceptsProfiles(GeneratedKeyProfiles)) {
+      // A key per instance fails the verification of every assertion signed by another instance
+      throw new ServerError("No assertion private key configured");
+    }
+
+    RSAPrivateCrtKey signingKey;
+    RSAPublicKey publicKey;
+
+    try {
+      signingKey = privateKey.isBlank() ? generateKey() : readKey(privateKey);
+      publicKey =
+          (RSAPublicKey)
+              KeyFactory.getInstance("RSA")
+                  .generatePublic(
+                      new RSAPublicKeySpec(
+                          signingKey.getModulus(), signingKey.getPublicExponent()));
+    } catch (GeneralSecurityException | IllegalArgumentException | ClassCastException e) {
+      throw new ServerError("Invalid assertion private key", e);
+    }
+
+    if (keyId.isBlank()) {
+      keyId = thumbprint(publicKey);
+    }
+
+    Map<String, RSAPublicKey> keys = new LinkedHashMap<>();
+    keys.put(keyId, publicKey);
+
+    for (String previousPublicKey : previousPublicKeys) {
+      if (previousPublicKey.isBlank()) {
+        continue;
+      }
+
+      // An optional key id prefix, the base64 and the PEM armor never contain a colon
+      int separator = previousPublicKey.indexOf(':');
+
+      try {
+        RSAPublicKey previous = readPublicKey(previousPublicKey.substring(separator + 1));
+        String previousKeyId =
+            separator < 0 ? thumbprint(previous) : previousPublicKey.substring(0, separator).trim();
+        keys.putIfAbsent(previousKeyId, previous);
+      } catch (GeneralSecurityException | IllegalArgumentException | ClassCastException e) {
+        throw new ServerError("Invalid previous assertion public key", e);
+      }
+    }
+
+    publicKeys = Collections.unmodifiableMap(keys);
+    algorithm = Algorithm.RSA256(publicKey, signingKey);
+    logger.info(
+        "Signing impersonation assertions with key {}, publishing {}", keyId, keys.keySet());
+  }
+
+  public Boolean isEnabled() {
+    return algorithm != null;
+  }
+
+  public String getKeyId() {
+    return keyId;
+  }
+
+  /** The verification keys by key id, the signing key first, empty when assertions are disabled. */
+  public Map<String, RSAPublicKey> getPublicKeys() {
+    return publicKeys;
+  }
+
+  /** @return the signed assertion of the assumed identity, null when assertions are disabled */
+  public String sign(AssumableIdentity assumableIdentity) {
+    if (algorithm == null) {
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+    return JWT.create()
+        .withKeyId(keyId)
+        .withIssuer(issuer)
+        .withSubject(assumableIdentity.getSubject().toString())
+        .withClaim(IdentityClaim, assumableIdentity.getIdentity().toString())
+        .withIssuedAt(new Date(now))
+        .withExpiresAt(new Date(now + lifetime.toMillis()))
+        .sign(algorithm);
+  }
+
+  /** The base64url encoding of the unsigned big endian bytes, as JWKs encode key parameters. */
+  public static String encode(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+
+    if (bytes.length > 1 && bytes[0] == 0) {
+      bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+    }
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  private static RSAPrivateCrtKey generateKey() throws GeneralSecurityException {
+    logger.warn("No assertion private key configured, generating one for this instance only");
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(GeneratedKeySize);
+    return (RSAPrivateCrtKey) generator.generateKeyPair().getPrivate();
+  }
+
+  /** Read a base64 PKCS #8 key, with or without its PEM armor. */
+  private static RSAPrivateCrtKey readKey(String encoded) throws GeneralSecurityException {
+    return (RSAPrivateCrtKey)
+        KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(decode(encoded)));
+  }
+
+  /** Read a base64 X.509 public key, with or without its PEM armor. */
+  private static RSAPublicKey readPublicKey(String encoded) throws GeneralSecurityException {
+    return (RSAPublicKey)
+        KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(decode(encoded)));
+  }
+
+  private static byte[] decode(String encoded) {
+    String base64 = encoded.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+    return Base64.getDecoder().decode(base64);
+  }
+
+  /** The RFC 7638 thumbprint, the same key gets the same id on every instance. */
+  private static String thumbprint(RSAPublicKey key) {
+    String members =
+        "{\"e\":\""
+            + encode(key.getPublicExponent())
+            + "\",\"kty\":\"RSA\",\"n\":\""
+            + encode(key.getModulus())
+            + "\"}";
+
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(members.getBytes(StandardCharsets.UTF_8));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    } catch (GeneralSecurityException e) {
+      throw new ServerError("SHA-256 is not available", e);
+    }
+  }
+}
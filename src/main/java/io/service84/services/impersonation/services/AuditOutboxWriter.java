@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+/**
+ * Moves the audit events queued in the audit outbox by the grant and revoke statements into the
+ * Envers revision tables in batches. The events are queued in the same transaction as the change
+ * they describe, so none are lost if a node stops before they are moved. Events left behind after
+ * the outbox is disabled are still moved once at startup.
+ */
+@Service("7DC8FB1A-88F6-4E07-B162-4EFB3AA48B55")
+public class AuditOutboxWriter {
+  private static final Logger logger = LoggerFactory.getLogger(AuditOutboxWriter.class);
+
+  @Value("${io.service84.services.impersonation.auditoutbox.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.services.impersonation.auditoutbox.batchsize:1000}")
+  private Integer batchSize;
+
+  @Autowired private AssumableIdentityRepository repository;
+
+  private volatile Boolean drained = false;
+
+  @Scheduled(
+      fixedDelayString = "${io.service84.services.impersonation.auditoutbox.draininterval:PT1S}")
+  public void drain() {
+    if (!enabled && drained) {
+      return;
+    }
+
+    long total = 0;
+    int moved;
+
+    do {
+      moved = repository.drainAuditOutbox(batchSize);
+      total += moved;
+    } while (moved == batchSize);
+
+    drained = true;
+
+    if (total > 0) {
+      logger.debug("Moved {} audit events from the audit outbox", total);
+    }
+  }
+}
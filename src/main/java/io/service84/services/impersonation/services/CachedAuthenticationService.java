@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.services;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.Claim;
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+import io.service84.library.authutils.services.AuthenticationService;
+
+/**
+ * Answers the subject and scopes of the current request from the verified token cache when it is
+ * enabled, so a token is verified once rather than on every call. The token is verified on the
+ * first call, or ahead of the security chain by the VerifiedTokenFilter. Anything the cache cannot
+ * answer, including invalid tokens, is left to the standard AuthenticationService.
+ */
+@Primary
+@Service("23C3E191-79FE-43EE-A915-D5B17426D23F")
+public class CachedAuthenticationService extends AuthenticationService {
+  private static final Logger logger = LoggerFactory.getLogger(CachedAuthenticationService.class);
+  private static final String AuthenticationHeader = "Authentication";
+  private static final String BearerPrefix = "Bearer ";
+  private static final String VerifiedTokenAttribute =
+      CachedAuthenticationService.class.getName() + ".verifiedToken";
+
+  @Value("${io.service84.services.impersonation.tokencache.scopesclaim:scope}")
+  private String scopesClaim;
+
+  @Autowired private VerifiedTokenCache verifiedTokenCache;
+
+  @Override
+  public String getSubject() {
+    DecodedJWT token = getVerifiedToken();
+
+    if (token == null) {
+      return super.getSubject();
+    }
+
+    return token.getSubject();
+  }
+
+  @Override
+  public List<String> getScopes() {
+    DecodedJWT token = getVerifiedToken();
+
+    if (token == null) {
+      return super.getScopes();
+    }
+
+    Claim claim = token.getClaim(scopesClaim);
+    List<String> scopes = claim.asList(String.class);
+
+    if (scopes != null) {
+      return scopes;
+    }
+
+    String scope = claim.asString();
+    return scope == null ? List.of() : Arrays.asList(scope.split(" "));
+  }
+
+  /**
+   * Verifies the bearer token of the request through the verified token cache once per request.
+   *
+   * @return the verified token, or null when the cache is disabled or the token is missing or not
+   *     valid
+   */
+  public DecodedJWT verifyRequest(HttpServletRequest request) {
+    if (!verifiedTokenCache.isEnabled()) {
+      return null;
+    }
+
+    Object verified = request.getAttribute(VerifiedTokenAttribute);
+
+    if (verified != null) {
+      return (DecodedJWT) verified;
+    }
+
+    String token = request.getHeader(AuthenticationHeader);
+
+    if (token == null) {
+      return null;
+    }
+
+    if (token.regionMatches(true, 0, BearerPrefix, 0, BearerPrefix.length())) {
+      token = token.substring(BearerPrefix.length());
+    }
+
+    try {
+      DecodedJWT verifiedToken = verifiedTokenCache.verify(token);
+      request.setAttribute(VerifiedTokenAttribute, verifiedToken);
+      return verifiedToken;
+    } catch (JWTVerificationException e) {
+      logger.debug("Token not verified from the cache", e);
+      return null;
+    }
+  }
+
+  private DecodedJWT getVerifiedToken() {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+
+    if (!(attributes instanceof ServletRequestAttributes)) {
+      return null;
+    }
+
+    return verifyRequest(((ServletRequestAttributes) attributes).getRequest());
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import io.service84.services.impersonation.errors.ServerError;
+import io.service84.services.impersonation.exceptions.Overloaded;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+/**
+ * Answers whether pairs are granted without blocking the caller. Lookups are queued and a small
+ * fixed set of loader threads answers every lookup queued since its last query with a single query,
+ * so the number of concurrent lookups is not bounded by threads or connections. The queue is
+ * bounded, once it is full lookups fail at once as overloaded instead of waiting ever longer.
+ */
+@Service("2311C01D-5FC4-4CD7-8046-E6D96788EE82")
+public class GrantBatchLoader {
+  private static final Logger logger = LoggerFactory.getLogger(GrantBatchLoader.class);
+
+  private static class Lookup {
+    private final AssumableIdentityKey key;
+    private final CompletableFuture<Boolean> granted = new CompletableFuture<>();
+
+    private Lookup(AssumableIdentityKey key) {
+      this.key = key;
+    }
+  }
+
+  @Value("${io.service84.services.impersonation.asyncassume.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.services.impersonation.asyncassume.threads:2}")
+  private Integer threads;
+
+  @Value("${io.service84.services.impersonation.asyncassume.batchsize:500}")
+  private Integer batchSize;
+
+  @Value("${io.service84.services.impersonation.asyncassume.queuecapacity:10000}")
+  private Integer queueCapacity;
+
+  @Autowired private AssumableIdentityRepository repository;
+
+  private BlockingQueue<Lookup> lookups;
+  private ExecutorService loaders;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+
+    if (!enabled) {
+      return;
+    }
+
+    if (threads < 1 || batchSize < 1 || queueCapacity < 1) {
+      throw new ServerError("Invalid asynchronous assume threads, batch size or queue capacity");
+    }
+
+    lookups = new LinkedBlockingQueue<>(queueCapacity);
+    loaders = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("grant-loader-"));
+
+    for (int thread = 0; thread < threads; thread++) {
+      loaders.execute(this::load);
+    }
+
+    logger.info(
+        "Grant batch loader started, {} threads, batch size {}, queue capacity {}",
+        threads,
+        batchSize,
+        queueCapacity);
+  }
+
+  @PreDestroy
+  public void destroy() {
+    logger.debug("destroy");
+
+    if (loaders != null) {
+      loaders.shutdownNow();
+    }
+  }
+
+  public CompletableFuture<Boolean> isGranted(AssumableIdentityKey key) {
+    if (loaders == null) {
+      return CompletableFuture.failedFuture(new ServerError("Asynchronous assume is not enabled"));
+    }
+
+    Lookup lookup = new Lookup(key);
+
+    if (!lookups.offer(lookup)) {
+      return CompletableFuture.failedFuture(Overloaded.instance());
+    }
+
+    return lookup.granted;
+  }
+
+  private void load() {
+    List<Lookup> batch = new ArrayList<>(batchSize);
+
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        batch.add(lookups.take());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+
+      lookups.drainTo(batch, batchSize - 1);
+
+      try {
+        Set<AssumableIdentityKey> granted =
+            new HashSet<>(
+                repository.findAllKeysIn(
+                    batch.stream().map(lookup -> lookup.key).collect(Collectors.toList())));
+        batch.forEach(lookup -> lookup.granted.complete(granted.contains(lookup.key)));
+      } catch (RuntimeException e) {
+        logger.error("Grant batch lookup failed", e);
+        batch.forEach(lookup -> lookup.granted.completeExceptionally(e));
+      }
+
+      batch.clear();
+    }
+
+    batch.clear();
+    lookups.drainTo(batch);
+    batch.forEach(
+        lookup -> lookup.granted.completeExceptionally(new ServerError("Grant loader stopped")));
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+
+/**
+ * A bounded read-through cache of grant decisions keyed by (subject, identity). Both granted and
+ * not granted decisions are cached; grant and revoke must invalidate the affected key. Decisions
+ * still being loaded are cached too, so invalidating a key also discards a load in flight.
+ */
+@Service("5F31F80B-B924-4719-8506-B0B075211E31")
+public class GrantCache {
+  private static final Logger logger = LoggerFactory.getLogger(GrantCache.class);
+  private static final String CacheName = "assumable_identity_grants";
+
+  @Value("${io.service84.services.impersonation.grantcache.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.services.impersonation.grantcache.maximumsize:100000}")
+  private Long maximumSize;
+
+  @Value("${io.service84.services.impersonation.grantcache.ttl:30s}")
+  private Duration timeToLive;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  private AsyncCache<AssumableIdentityKey, Boolean> cache;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+
+    if (!enabled) {
+      logger.info("Grant cache disabled");
+      return;
+    }
+
+    cache =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .buildAsync();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), CacheName);
+    logger.info("Grant cache enabled, maximum size {}, ttl {}", maximumSize, timeToLive);
+  }
+
+  public Boolean isGranted(
+      UUID subject, UUID identity, Function<AssumableIdentityKey, Boolean> loader) {
+    AssumableIdentityKey key = new AssumableIdentityKey(subject, identity);
+
+    if (cache == null) {
+      return loader.apply(key);
+    }
+
+    return cache.synchronous().get(key, loader);
+  }
+
+  /** isGranted for a loader that answers asynchronously. */
+  public CompletableFuture<Boolean> isGrantedAsync(
+      UUID subject,
+      UUID identity,
+      Function<AssumableIdentityKey, CompletableFuture<Boolean>> loader) {
+    AssumableIdentityKey key = new AssumableIdentityKey(subject, identity);
+
+    if (cache == null) {
+      return loader.apply(key);
+    }
+
+    return cache.get(key, (requested, executor) -> loader.apply(requested));
+  }
+
+  /**
+   * Cache the answers for the given pairs, the loader answers for every pair that is not yet cached
+   * at once. Loading through the cache means an invalidation during the load is not lost.
+   */
+  public void preload(
+      Collection<AssumableIdentityKey> keys,
+      Function<Set<AssumableIdentityKey>, Map<AssumableIdentityKey, Boolean>> loader) {
+    if (cache == null || keys.isEmpty()) {
+      return;
+    }
+
+    cache
+        .getAll(
+            keys,
+            (requested, executor) -> {
+              Set<AssumableIdentityKey> requestedKeys = new HashSet<>();
+              requested.forEach(requestedKeys::add);
+              return CompletableFuture.supplyAsync(() -> loader.apply(requestedKeys), executor);
+            })
+        .join();
+  }
+
+  public void invalidate(UUID subject, UUID identity) {
+    if (cache != null) {
+      cache.synchronous().invalidate(new AssumableIdentityKey(subject, identity));
+    }
+  }
+
+  public void invalidateAll() {
+    if (cache != null) {
+      cache.synchronous().invalidateAll();
+    }
+  }
+}
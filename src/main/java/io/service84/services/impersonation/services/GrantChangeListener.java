@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.UUID;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+/**
+ * Holds a dedicated connection to the primary, outside of the pool, that LISTENs on the grant
+ * change channel and applies the changes published by every node to the in memory grant structures
+ * of this node. Everything is flushed once the first connection is established, and after a
+ * reconnect when the grants changed while no connection was listening, because their notifications
+ * were missed.
+ */
+@Service("7A2E624C-CE91-4C56-8C2F-5F9827469766")
+public class GrantChangeListener implements SmartLifecycle {
+  private static final Logger logger = LoggerFactory.getLogger(GrantChangeListener.class);
+  private static final String FindVersion =
+      "SELECT version FROM assumable_identity_version WHERE id = 1";
+  // Notifies the listening connection alone of the current version. Notifications are delivered in
+  // the order they were queued, and every change the version counts queued its notifications before
+  // it committed, so this one arrives after all of them. Parameter: the channel of the connection
+  private static final String SyncVersion =
+      "SELECT pg_notify(?, version::text) FROM assumable_identity_version WHERE id = 1";
+
+  @Value("${io.service84.services.impersonation.grantnotifications.polltimeout:PT1S}")
+  private Duration pollTimeout;
+
+  @Value("${io.service84.services.impersonation.grantnotifications.reconnectdelay:PT1S}")
+  private Duration reconnectDelay;
+
+  @Autowired private DataSourceProperties dataSourceProperties;
+  @Autowired private GrantChangeNotifier notifier;
+
+  private volatile Boolean running = false;
+  private Thread thread;
+  // The version of the grants whose notifications have all been applied
+  private Long appliedVersion;
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public synchronized void start() {
+    logger.debug("start");
+
+    if (!notifier.isEnabled() || running) {
+      return;
+    }
+
+    running = true;
+    thread = new Thread(this::listen, "grant-change-listener");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public synchronized void stop() {
+    logger.debug("stop");
+    running = false;
+
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  private void handle(PGNotification notification) {
+    String[] parts = notification.getParameter().split(" ");
+
+    try {
+      if (parts.length == 1 && GrantChangeNotifier.Flush.equals(parts[0])) {
+        notifier.applyFlush();
+      } else if (parts.length == 3 && GrantChangeNotifier.Grant.equals(parts[0])) {
+        notifier.applyGranted(UUID.fromString(parts[1]), UUID.fromString(parts[2]));
+      } else if (parts.length == 3 && GrantChangeNotifier.Revoke.equals(parts[0])) {
+        notifier.applyRevoked(UUID.fromString(parts[1]), UUID.fromString(parts[2]));
+      } else {
+        logger.warn("Unrecognized grant change notification {}", notification.getParameter());
+      }
+    } catch (IllegalArgumentException e) {
+      logger.warn("Malformed grant change notification {}", notification.getParameter());
+    }
+  }
+
+  private void listen() {
+    while (running) {
+      try (Connection connection =
+          DriverManager.getConnection(
+              dataSourceProperties.determineUrl(),
+              dataSourceProperties.determineUsername(),
+              dataSourceProperties.determinePassword())) {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        String syncChannel = "grant_sync_" + pgConnection.getBackendPID();
+
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("LISTEN " + notifier.getChannel());
+          statement.execute("LISTEN " + syncChannel);
+        }
+
+        logger.info("Listening for grant changes on {}", notifier.getChannel());
+        // Changes from here on are notified, so nothing was missed unless the grants changed
+        // since the last version that was applied
+        Long version = findVersion(connection);
+
+        if (!version.equals(appliedVersion)) {
+          notifier.applyFlush();
+          appliedVersion = version;
+        }
+
+        Boolean syncing = false;
+
+        while (running) {
+          if (!syncing) {
+            sync(connection, syncChannel);
+            syncing = true;
+          }
+
+          PGNotification[] notifications =
+              pgConnection.getNotifications((int) pollTimeout.toMillis());
+
+          if (notifications != null) {
+            for (PGNotification notification : notifications) {
+              if (syncChannel.equals(notification.getName())) {
+                appliedVersion = Long.valueOf(notification.getParameter());
+                syncing = false;
+              } else {
+                handle(notification);
+              }
+            }
+          }
+        }
+      } catch (SQLException | RuntimeException e) {
+        if (running) {
+          logger.warn("Grant change listener connection lost, reconnecting", e);
+          sleep(reconnectDelay);
+        }
+      }
+    }
+  }
+
+  private static Long findVersion(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery(FindVersion)) {
+      resultSet.next();
+      return resultSet.getLong(1);
+    }
+  }
+
+  private static void sync(Connection connection, String syncChannel) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(SyncVersion)) {
+      statement.setString(1, syncChannel);
+      statement.execute();
+    }
+  }
+
+  private void sleep(Duration duration) {
+    try {
+      Thread.sleep(duration.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
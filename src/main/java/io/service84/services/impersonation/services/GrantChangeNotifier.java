@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.service84.services.impersonation.errors.ServerError;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+
+/**
+ * Applies grant changes to the in memory grant structures of this node once the change commits, and
+ * publishes them to every other node through Postgres NOTIFY on the same transaction.
+ */
+@Service("3BA0522F-06B2-42A1-B996-01A351731509")
+public class GrantChangeNotifier {
+  private static final Logger logger = LoggerFactory.getLogger(GrantChangeNotifier.class);
+  private static final Pattern ChannelPattern = Pattern.compile("[a-z_][a-z0-9_]{0,62}");
+
+  static final String Flush = "flush";
+  static final String Grant = "grant";
+  static final String Revoke = "revoke";
+
+  @Value("${io.service84.services.impersonation.grantnotifications.enabled:false}")
+  private Boolean enabled;
+
+  @Value(
+      "${io.service84.services.impersonation.grantnotifications.channel:assumable_identity_changes}")
+  private String channel;
+
+  @Autowired private GrantCache grantCache;
+  @Autowired private GrantFilter grantFilter;
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private ReadYourWrites readYourWrites;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+
+    if (!ChannelPattern.matcher(channel).matches()) {
+      throw new ServerError("Invalid grant notification channel " + channel);
+    }
+  }
+
+  public String getChannel() {
+    return channel;
+  }
+
+  public Boolean isEnabled() {
+    return enabled;
+  }
+
+  public void granted(UUID subject, UUID identity) {
+    afterCommit(() -> applyGranted(subject, identity));
+    publish(Grant + " " + subject + " " + identity);
+  }
+
+  public void revoked(UUID subject, UUID identity) {
+    afterCommit(() -> applyRevoked(subject, identity));
+    publish(Revoke + " " + subject + " " + identity);
+  }
+
+  public void grantedAll(Collection<AssumableIdentityKey> keys) {
+    afterCommit(() -> keys.forEach(key -> applyGranted(key.getSubject(), key.getIdentity())));
+    publishAll(Grant, keys);
+  }
+
+  public void revokedAll(Collection<AssumableIdentityKey> keys) {
+    afterCommit(() -> keys.forEach(key -> applyRevoked(key.getSubject(), key.getIdentity())));
+    publishAll(Revoke, keys);
+  }
+
+  void applyFlush() {
+    grantCache.invalidateAll();
+    grantFilter.reset();
+    grantFilter.rebuild();
+  }
+
+  void applyGranted(UUID subject, UUID identity) {
+    // Pinned before the invalidation, as for a revoke
+    readYourWrites.pin(subject);
+    grantFilter.put(subject, identity);
+    grantCache.invalidate(subject, identity);
+  }
+
+  void applyRevoked(UUID subject, UUID identity) {
+    // Pinned before the invalidation, otherwise an assume in between could read a replica that has
+    // not replayed the revoke yet and cache the stale grant again for the whole ttl
+    readYourWrites.pin(subject);
+    grantCache.invalidate(subject, identity);
+  }
+
+  private void afterCommit(Runnable runnable) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      runnable.run();
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronizationAdapter() {
+          @Override
+          public void afterCommit() {
+            runnable.run();
+          }
+        });
+  }
+
+  private void publish(String payload) {
+    if (!enabled) {
+      return;
+    }
+
+    jdbcTemplate.execute(
+        "SELECT pg_notify(?, ?)",
+        (PreparedStatementCallback<Boolean>)
+            statement -> {
+              statement.setString(1, channel);
+              statement.setString(2, payload);
+              return statement.execute();
+            });
+  }
+
+  private void publishAll(String change, Collection<AssumableIdentityKey> keys) {
+    if (!enabled || keys.isEmpty()) {
+      return;
+    }
+
+    jdbcTemplate.execute(
+        "SELECT pg_notify(?, ? || ' ' || subject || ' ' || identity)"
+            + " FROM unnest(?::uuid[], ?::uuid[]) AS changed (subject, identity)",
+        (PreparedStatementCallback<Boolean>)
+            statement -> {
+              statement.setString(1, channel);
+              statement.setString(2, change);
+              statement.setArray(
+                  3,
+                  statement
+                      .getConnection()
+                      .createArrayOf(
+                          "uuid", keys.stream().map(AssumableIdentityKey::getSubject).toArray()));
+              statement.setArray(
+                  4,
+                  statement
+                      .getConnection()
+                      .createArrayOf(
+                          "uuid", keys.stream().map(AssumableIdentityKey::getIdentity).toArray()));
+              return statement.execute();
+            });
+  }
+}
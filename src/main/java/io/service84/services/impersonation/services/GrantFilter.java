@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+/**
+ * An in memory Bloom filter over every granted (subject, identity) pair. A negative answer is
+ * definite, so assume requests for pairs that were never granted can be denied without a database
+ * round trip. Revoked pairs are only dropped when the filter is rebuilt.
+ */
+@Service("B16380FB-2532-47C3-8374-5D40AB3204FC")
+public class GrantFilter {
+  private static final Logger logger = LoggerFactory.getLogger(GrantFilter.class);
+  private static final double Ln2 = Math.log(2);
+
+  static class BitSet {
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    BitSet(long expectedInsertions, double falsePositiveRate, long maximumBytes) {
+      long optimalBits =
+          (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Ln2 * Ln2));
+      long bits = Math.max(Long.SIZE, Math.min(optimalBits, maximumBytes * Byte.SIZE));
+      int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, (bits + Long.SIZE - 1) / Long.SIZE);
+      this.words = new AtomicLongArray(wordCount);
+      this.bitCount = (long) wordCount * Long.SIZE;
+      this.hashCount =
+          (int) Math.max(1, Math.round((double) bitCount / Math.max(1, expectedInsertions) * Ln2));
+    }
+
+    private static long mix(long value) {
+      value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+      value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      return value ^ (value >>> 33);
+    }
+
+    private long index(long hash1, long hash2, int round) {
+      return Math.floorMod(hash1 + round * hash2, bitCount);
+    }
+
+    long getBitCount() {
+      return bitCount;
+    }
+
+    int getHashCount() {
+      return hashCount;
+    }
+
+    boolean mightContain(UUID subject, UUID identity) {
+      long hash1 = hash1(subject, identity);
+      long hash2 = hash2(subject, identity);
+
+      for (int round = 0; round < hashCount; round++) {
+        long index = index(hash1, hash2, round);
+
+        if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    void put(UUID subject, UUID identity) {
+      long hash1 = hash1(subject, identity);
+      long hash2 = hash2(subject, identity);
+
+      for (int round = 0; round < hashCount; round++) {
+        long index = index(hash1, hash2, round);
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long current = words.get(word);
+
+        while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+          current = words.get(word);
+        }
+      }
+    }
+
+    private static long hash1(UUID subject, UUID identity) {
+      return mix(subject.getMostSignificantBits() ^ mix(identity.getLeastSignificantBits()));
+    }
+
+    private static long hash2(UUID subject, UUID identity) {
+      return mix(subject.getLeastSignificantBits() ^ mix(identity.getMostSignificantBits())) | 1L;
+    }
+  }
+
+  @Value("${io.service84.services.impersonation.grantfilter.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.services.impersonation.grantfilter.expectedinsertions:1000000}")
+  private Long expectedInsertions;
+
+  @Value("${io.service84.services.impersonation.grantfilter.falsepositiverate:0.01}")
+  private Double falsePositiveRate;
+
+  @Value("${io.service84.services.impersonation.grantfilter.maximumbytes:16777216}")
+  private Long maximumBytes;
+
+  @Autowired private AssumableIdentityRepository repository;
+
+  private volatile BitSet active;
+  private volatile BitSet building;
+
+  /**
+   * Answers false only if the pair is definitely not granted. Until the first build completes every
+   * pair might be granted.
+   */
+  public Boolean mightBeGranted(UUID subject, UUID identity) {
+    BitSet current = active;
+    return current == null || current.mightContain(subject, identity);
+  }
+
+  public void put(UUID subject, UUID identity) {
+    // building is read before active: a rebuild that publishes its filter and clears building in
+    // between is then seen as the new active filter, and a rebuild that starts after the read of
+    // building streams a snapshot of the primary that already holds the committed pair
+    BitSet next = building;
+    BitSet current = active;
+
+    if (current != null) {
+      current.put(subject, identity);
+    }
+
+    if (next != null) {
+      next.put(subject, identity);
+    }
+  }
+
+  /** Forget every pair so that each one might be granted until the filter is rebuilt. */
+  public void reset() {
+    active = null;
+  }
+
+  @Scheduled(
+      initialDelayString = "${io.service84.services.impersonation.grantfilter.initialdelay:PT0S}",
+      fixedDelayString = "${io.service84.services.impersonation.grantfilter.rebuildinterval:PT15M}")
+  // Not read-only, so that it reads the primary: a lagging replica would leave out pairs granted
+  // before the rebuild started, and the filter would deny them until the next rebuild
+  @Transactional
+  public synchronized void rebuild() {
+    logger.debug("rebuild");
+
+    if (!enabled) {
+      return;
+    }
+
+    long count = repository.count();
+    BitSet next =
+        new BitSet(
+            Math.max(expectedInsertions, count + count / 10), falsePositiveRate, maximumBytes);
+    building = next;
+
+    try (Stream<AssumableIdentityKey> keys = repository.streamAllKeys()) {
+      keys.forEach(key -> next.put(key.getSubject(), key.getIdentity()));
+      active = next;
+      logger.info(
+          "Grant filter rebuilt from {} grants using {} bits and {} hashes",
+          count,
+          next.bitCount,
+          next.hashCount);
+    } finally {
+      building = null;
+    }
+  }
+}
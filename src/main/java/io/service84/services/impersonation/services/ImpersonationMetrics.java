@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.services;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The meters of the impersonation decisions and grant changes. They are registered up front so that
+ * recording on the hot paths is a single increment.
+ */
+@Service("2A7F521F-BA3F-4B0D-9B6B-6EB5117AF8FF")
+public class ImpersonationMetrics {
+  private static final Logger logger = LoggerFactory.getLogger(ImpersonationMetrics.class);
+  private static final String AssumeDecisions = "impersonation.assume.decisions";
+  private static final String GrantChanges = "impersonation.grant.changes";
+  private static final String RetrievePageSize = "impersonation.retrieve.page.size";
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  private Counter allowedViaScope;
+  private Counter allowedViaGrant;
+  private Counter deniedMissingScope;
+  private Counter deniedNotGranted;
+  private Counter granted;
+  private Counter alreadyGranted;
+  private Counter revoked;
+  private Counter notGranted;
+  private DistributionSummary pageSize;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+    allowedViaScope = decision("allowed_via_scope");
+    allowedViaGrant = decision("allowed_via_grant");
+    deniedMissingScope = decision("denied_missing_scope");
+    deniedNotGranted = decision("denied_not_granted");
+    granted = change("grant", "changed");
+    alreadyGranted = change("grant", "unchanged");
+    revoked = change("revoke", "changed");
+    notGranted = change("revoke", "unchanged");
+    pageSize =
+        DistributionSummary.builder(RetrievePageSize)
+            .description("The number of grants returned per page")
+            .baseUnit("grants")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+  }
+
+  public void allowedViaScope() {
+    allowedViaScope.increment();
+  }
+
+  public void allowedViaGrant() {
+    allowedViaGrant.increment();
+  }
+
+  public void deniedMissingScope() {
+    deniedMissingScope.increment();
+  }
+
+  public void deniedNotGranted() {
+    deniedNotGranted.increment();
+  }
+
+  public void checked(int allowedViaGrant, int requested) {
+    this.allowedViaGrant.increment(allowedViaGrant);
+    deniedNotGranted.increment(requested - allowedViaGrant);
+  }
+
+  public void checkedViaScope(int requested) {
+    allowedViaScope.increment(requested);
+  }
+
+  public void granted(int changed, int requested) {
+    granted.increment(changed);
+    alreadyGranted.increment(requested - changed);
+  }
+
+  public void revoked(int changed, int requested) {
+    revoked.increment(changed);
+    notGranted.increment(requested - changed);
+  }
+
+  public void retrieved(int count) {
+    pageSize.record(count);
+  }
+
+  private Counter change(String operation, String result) {
+    return Counter.builder(GrantChanges)
+        .description("Grants changed and requested changes that found nothing to change")
+        .tag("operation", operation)
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+  private Counter decision(String decision) {
+    return Counter.builder(AssumeDecisions)
+        .description("Assume identity decisions by how they were reached")
+        .tag("decision", decision)
+        .register(meterRegistry);
+  }
+}
@@ -16,8 +16,16 @@ package io.service84.services.impersonation.services;
 
 import static io.service84.library.standardpersistence.services.SpecificationHelper.simpleTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -25,21 +33,22 @@ import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
 
 import io.service84.library.authutils.services.AuthenticationService;
-import io.service84.services.impersonation.exceptions.EntityNotFound;
 import io.service84.services.impersonation.exceptions.InsufficientPermission;
+import io.service84.services.impersonation.exceptions.InsufficientPermissionCompletion;
 import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
 import io.service84.services.impersonation.persistence.model.AssumableIdentity_;
 import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
 
 @Service("FCD09D82-4BDB-47D4-B783-B034E3417CE4")
 public class ImpersonationService {
-  private static String AssumeIdentityScope = "impersonation:assume_identity";
+  static String AssumeIdentityScope = "impersonation:assume_identity";
   private static String ImpersonateAnyOtherSubjectScope =
       "impersonation:impersonate_any_other_subject";
   private static String RetrieveAnyAssumableIdentityScope =
@@ -51,38 +60,171 @@ public class ImpersonationService {
 
   @Autowired private AssumableIdentityRepository repository;
   @Autowired private AuthenticationService authenticationService;
+  @Autowired private GrantBatchLoader grantBatchLoader;
+  @Autowired private GrantCache grantCache;
+  @Autowired private GrantChangeNotifier grantChangeNotifier;
+  @Autowired private GrantFilter grantFilter;
+  @Autowired private ImpersonationMetrics metrics;
+  @Autowired private ReadYourWrites readYourWrites;
 
   public AssumableIdentity assumeIdentity(UUID identity) throws InsufficientPermission {
+    return assumeIdentity(
+        UUID.fromString(authenticationService.getSubject()),
+        authenticationService.getScopes(),
+        identity);
+  }
+
+  /** assumeIdentity for the given caller rather than the caller of the current request. */
+  AssumableIdentity assumeIdentity(UUID subject, List<String> subjectScopes, UUID identity)
+      throws InsufficientPermission {
+    if (!subjectScopes.contains(AssumeIdentityScope)) {
+      metrics.deniedMissingScope();
+      throw InsufficientPermission.instance();
+    }
+
+    if (subjectScopes.contains(ImpersonateAnyOtherSubjectScope)) {
+      metrics.allowedViaScope();
+      return new AssumableIdentity(subject, identity);
+    }
+
+    if (!grantFilter.mightBeGranted(subject, identity)) {
+      metrics.deniedNotGranted();
+      throw InsufficientPermission.instance();
+    }
+
+    Boolean granted =
+        grantCache.isGranted(
+            subject,
+            identity,
+            key -> repository.existsBySubjectAndIdentity(key.getSubject(), key.getIdentity()));
+
+    if (!granted) {
+      metrics.deniedNotGranted();
+      throw InsufficientPermission.instance();
+    }
+
+    metrics.allowedViaGrant();
+    return new AssumableIdentity(subject, identity);
+  }
+
+  /**
+   * assumeIdentity without blocking the calling thread: a pair that is neither decided by the
+   * scopes nor the filter nor the cache is looked up in the next batch of the grant batch loader.
+   */
+  public CompletableFuture<AssumableIdentity> assumeIdentityAsync(UUID identity) {
     UUID subject = UUID.fromString(authenticationService.getSubject());
+
+    // The batches are read from the replicas, a subject whose grants just changed reads the primary
+    if (readYourWrites.isPinned(subject)) {
+      try {
+        return CompletableFuture.completedFuture(assumeIdentity(identity));
+      } catch (InsufficientPermission e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+
     List<String> subjectScopes = authenticationService.getScopes();
 
     if (!subjectScopes.contains(AssumeIdentityScope)) {
-      throw new InsufficientPermission();
+      metrics.deniedMissingScope();
+      return CompletableFuture.failedFuture(InsufficientPermission.instance());
     }
 
     if (subjectScopes.contains(ImpersonateAnyOtherSubjectScope)) {
-      return new AssumableIdentity(subject, identity);
+      metrics.allowedViaScope();
+      return CompletableFuture.completedFuture(new AssumableIdentity(subject, identity));
+    }
+
+    if (!grantFilter.mightBeGranted(subject, identity)) {
+      metrics.deniedNotGranted();
+      return CompletableFuture.failedFuture(InsufficientPermission.instance());
+    }
+
+    return grantCache
+        .isGrantedAsync(subject, identity, grantBatchLoader::isGranted)
+        .thenApply(
+            granted -> {
+              if (!granted) {
+                metrics.deniedNotGranted();
+                throw new InsufficientPermissionCompletion();
+              }
+
+              metrics.allowedViaGrant();
+              return new AssumableIdentity(subject, identity);
+            });
+  }
+
+  /**
+   * @return the identities the caller may assume, in the given order, decided by the scopes or by a
+   *     single query for the identities that pass the filter
+   */
+  public List<AssumableIdentity> checkAssumableIdentities(Collection<UUID> identities)
+      throws InsufficientPermission {
+    UUID subject = UUID.fromString(authenticationService.getSubject());
+    List<String> subjectScopes = authenticationService.getScopes();
+
+    if (!subjectScopes.contains(AssumeIdentityScope)) {
+      metrics.deniedMissingScope();
+      throw InsufficientPermission.instance();
+    }
+
+    if (subjectScopes.contains(ImpersonateAnyOtherSubjectScope)) {
+      metrics.checkedViaScope(identities.size());
+      return identities.stream()
+          .map(identity -> new AssumableIdentity(subject, identity))
+          .collect(Collectors.toList());
     }
 
-    return repository
-        .findBySubjectAndIdentity(subject, identity)
-        .orElseThrow(InsufficientPermission.supplier());
+    List<UUID> candidates =
+        identities.stream()
+            .filter(identity -> grantFilter.mightBeGranted(subject, identity))
+            .collect(Collectors.toList());
+    Set<UUID> granted =
+        candidates.isEmpty()
+            ? Set.of()
+            : new HashSet<>(repository.findIdentitiesIn(subject, candidates));
+    metrics.checked(granted.size(), identities.size());
+    return identities.stream()
+        .filter(granted::contains)
+        .map(identity -> new AssumableIdentity(subject, identity))
+        .collect(Collectors.toList());
   }
 
+  @Transactional
   public AssumableIdentity grantAssumableIdentity(UUID subject, UUID identity)
       throws InsufficientPermission {
     List<String> subjectScopes = authenticationService.getScopes();
 
     if (subjectScopes.contains(GrantAnyAssumableIdentityScope)) {
-      AssumableIdentity assumableIdentity = new AssumableIdentity(subject, identity);
-      return repository.saveAndFlush(assumableIdentity);
+      int inserted = repository.insertIfAbsent(subject, identity);
+      metrics.granted(inserted, 1);
+      readYourWrites.pinCaller();
+      grantChangeNotifier.granted(subject, identity);
+      return new AssumableIdentity(subject, identity);
     }
 
-    throw new InsufficientPermission();
+    throw InsufficientPermission.instance();
+  }
+
+  /** @return the pairs that were newly granted, the others were already granted */
+  @Transactional
+  public List<AssumableIdentityKey> grantAssumableIdentities(Collection<AssumableIdentityKey> keys)
+      throws InsufficientPermission {
+    List<String> subjectScopes = authenticationService.getScopes();
+
+    if (subjectScopes.contains(GrantAnyAssumableIdentityScope)) {
+      List<AssumableIdentityKey> granted = repository.insertAllIfAbsent(keys);
+      metrics.granted(granted.size(), keys.size());
+      readYourWrites.pinCaller();
+      grantChangeNotifier.grantedAll(granted);
+      return granted;
+    }
+
+    throw InsufficientPermission.instance();
   }
 
   @SuppressWarnings("serial")
-  private Specification<AssumableIdentity> identitySelector(List<UUID> identities) {
+  Specification<AssumableIdentity> identitySelector(List<UUID> identities) {
     if (identities == null || identities.isEmpty()) {
       return simpleTrue();
     }
@@ -97,35 +239,118 @@ public class ImpersonationService {
     };
   }
 
-  public Page<AssumableIdentity> retrieveAssumableIdentities(
-      List<UUID> subjects, List<UUID> identities, Pageable pageable) throws InsufficientPermission {
+  /**
+   * Retrieve the page of at most pageSize grants that follows the given pair in (subject, identity)
+   * order, or the first page when it is null. When the grants are still at one of the known
+   * versions the page is reported as not modified without being read.
+   */
+  @Transactional(readOnly = true)
+  public SeekPage<AssumableIdentityKey> retrieveAssumableIdentities(
+      List<UUID> subjects,
+      List<UUID> identities,
+      AssumableIdentityKey after,
+      Integer pageSize,
+      SeekPage.Total total,
+      Collection<String> knownVersions)
+      throws InsufficientPermission {
     List<String> subjectScopes = authenticationService.getScopes();
 
     if (subjectScopes.contains(RetrieveAnyAssumableIdentityScope)) {
-      return repository.findAll(
-          subjectSelector(subjects).and(identitySelector(identities)), pageable);
+      // Read before the page in the same transaction, so the page is never older than its version
+      String version =
+          pageVersion(repository.findVersion(), subjects, identities, after, pageSize, total);
+
+      if (knownVersions.contains(version)) {
+        return SeekPage.notModified(version);
+      }
+
+      Specification<AssumableIdentity> specification =
+          subjectSelector(subjects).and(identitySelector(identities));
+      List<AssumableIdentityKey> content =
+          repository.findAllKeysAfter(specification, after, pageSize + 1);
+      Boolean hasNext = content.size() > pageSize;
+
+      if (hasNext) {
+        content = content.subList(0, pageSize);
+      }
+
+      metrics.retrieved(content.size());
+
+      switch (total) {
+        case Omitted:
+          return new SeekPage<>(content, hasNext, null, version);
+        case Estimated:
+          return new SeekPage<>(
+              content, hasNext, repository.estimateCount(subjects, identities), version);
+        default:
+          return new SeekPage<>(content, hasNext, repository.count(specification), version);
+      }
+    }
+
+    throw InsufficientPermission.instance();
+  }
+
+  /**
+   * Pass the stream of every matching grant, read from a single server side cursor, to the consumer
+   * only once the caller is permitted to retrieve them.
+   */
+  @Transactional(readOnly = true)
+  public void exportAssumableIdentities(
+      List<UUID> subjects, List<UUID> identities, Consumer<Stream<AssumableIdentityKey>> consumer)
+      throws InsufficientPermission {
+    List<String> subjectScopes = authenticationService.getScopes();
+
+    if (!subjectScopes.contains(RetrieveAnyAssumableIdentityScope)) {
+      throw InsufficientPermission.instance();
+    }
+
+    try (Stream<AssumableIdentityKey> keys =
+        repository.streamAllKeys(subjectSelector(subjects).and(identitySelector(identities)))) {
+      consumer.accept(keys);
+    }
+  }
+
+  /** @return whether the pair was revoked, otherwise it was not granted */
+  @Transactional
+  public Boolean revokeAssumableIdentity(UUID subject, UUID identity)
+      throws InsufficientPermission {
+    List<String> subjectScopes = authenticationService.getScopes();
+
+    if (!subjectScopes.contains(RevokeAnyAssumableIdentityScope)) {
+      throw InsufficientPermission.instance();
     }
 
-    throw new InsufficientPermission();
+    int deleted = repository.deleteByKey(subject, identity);
+    metrics.revoked(deleted, 1);
+    readYourWrites.pinCaller();
+
+    if (deleted == 0) {
+      return false;
+    }
+
+    grantChangeNotifier.revoked(subject, identity);
+    return true;
   }
 
-  public void revokeAssumableIdentity(UUID subject, UUID identity)
-      throws InsufficientPermission, EntityNotFound {
+  /** @return the pairs that were revoked, the others were not granted */
+  @Transactional
+  public List<AssumableIdentityKey> revokeAssumableIdentities(Collection<AssumableIdentityKey> keys)
+      throws InsufficientPermission {
     List<String> subjectScopes = authenticationService.getScopes();
 
     if (!subjectScopes.contains(RevokeAnyAssumableIdentityScope)) {
-      throw new InsufficientPermission();
+      throw InsufficientPermission.instance();
     }
 
-    AssumableIdentity assumableIdentity =
-        repository
-            .findBySubjectAndIdentity(subject, identity)
-            .orElseThrow(EntityNotFound.supplier());
-    repository.delete(assumableIdentity);
+    List<AssumableIdentityKey> revoked = repository.deleteAllByKey(keys);
+    metrics.revoked(revoked.size(), keys.size());
+    readYourWrites.pinCaller();
+    grantChangeNotifier.revokedAll(revoked);
+    return revoked;
   }
 
   @SuppressWarnings("serial")
-  private Specification<AssumableIdentity> subjectSelector(List<UUID> subjects) {
+  Specification<AssumableIdentity> subjectSelector(List<UUID> subjects) {
     if (subjects == null || subjects.isEmpty()) {
       return simpleTrue();
     }
@@ -139,4 +364,36 @@ public class ImpersonationService {
       }
     };
   }
+
+  /**
+   * The version of a page combines the version of the grants with everything that selects the page,
+   * so a version known for one page never marks a different page as not modified.
+   */
+  static String pageVersion(
+      String grantsVersion,
+      List<UUID> subjects,
+      List<UUID> identities,
+      AssumableIdentityKey after,
+      Integer pageSize,
+      SeekPage.Total total) {
+    String page =
+        String.join(
+            "|",
+            grantsVersion,
+            selection(subjects),
+            selection(identities),
+            String.valueOf(after),
+            String.valueOf(pageSize),
+            String.valueOf(total));
+    return DigestUtils.md5DigestAsHex(page.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** The same selection in any order and with any repetition is the same page. */
+  private static String selection(List<UUID> ids) {
+    if (ids == null) {
+      return "";
+    }
+
+    return ids.stream().distinct().sorted().map(UUID::toString).collect(Collectors.joining(","));
+  }
 }
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.services;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.auth0.jwk.InvalidPublicKeyException;
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwk.UrlJwkProvider;
+import com.auth0.jwt.interfaces.RSAKeyProvider;
+
+import io.service84.services.impersonation.errors.ServerError;
+
+/**
+ * Holds the RSA keys of the JWT provider in memory. They are fetched once at startup and then
+ * refreshed in the background, so verifying a token never waits on the network unless it is signed
+ * with a key that has not been seen yet.
+ */
+@Service("5D31EB9A-ACD9-487C-9ABA-C8B011AE12DE")
+public class JwksCache implements RSAKeyProvider {
+  private static final Logger logger = LoggerFactory.getLogger(JwksCache.class);
+
+  @Value("${io.service84.library.standardauth.jwtaf.url}")
+  private String url;
+
+  @Value("${io.service84.services.impersonation.tokencache.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.services.impersonation.tokencache.jwksminimumrefreshinterval:PT30S}")
+  private Duration minimumRefreshInterval;
+
+  private UrlJwkProvider provider;
+  private volatile Map<String, RSAPublicKey> keys = Collections.emptyMap();
+  private volatile Long refreshedAt = 0L;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+
+    if (!enabled) {
+      return;
+    }
+
+    try {
+      provider = new UrlJwkProvider(new URL(url));
+    } catch (MalformedURLException e) {
+      throw new ServerError("Invalid JWT provider URL " + url);
+    }
+
+    refresh();
+  }
+
+  @Scheduled(
+      initialDelayString =
+          "${io.service84.services.impersonation.tokencache.jwksrefreshinterval:PT5M}",
+      fixedDelayString =
+          "${io.service84.services.impersonation.tokencache.jwksrefreshinterval:PT5M}")
+  public synchronized void refresh() {
+    logger.debug("refresh");
+
+    if (provider == null) {
+      return;
+    }
+
+    refreshedAt = System.nanoTime();
+
+    try {
+      Map<String, RSAPublicKey> next = new HashMap<>();
+
+      for (Jwk jwk : provider.getAll()) {
+        PublicKey key = jwk.getPublicKey();
+
+        if (key instanceof RSAPublicKey) {
+          next.put(jwk.getId(), (RSAPublicKey) key);
+        }
+      }
+
+      keys = Collections.unmodifiableMap(next);
+      logger.info("Fetched {} keys from {}", next.size(), url);
+    } catch (SigningKeyNotFoundException | InvalidPublicKeyException e) {
+      logger.warn("Failed to fetch keys from {}, keeping {} known keys", url, keys.size(), e);
+    }
+  }
+
+  @Override
+  public RSAPublicKey getPublicKeyById(String keyId) {
+    RSAPublicKey key = keys.get(keyId);
+
+    if (key == null && keyId != null) {
+      refreshUnlessRecent();
+      key = keys.get(keyId);
+    }
+
+    return key;
+  }
+
+  @Override
+  public RSAPrivateKey getPrivateKey() {
+    return null;
+  }
+
+  @Override
+  public String getPrivateKeyId() {
+    return null;
+  }
+
+  private synchronized void refreshUnlessRecent() {
+    if (System.nanoTime() - refreshedAt >= minimumRefreshInterval.toNanos()) {
+      refresh();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.service84.library.authutils.services.AuthenticationService;
+
+/**
+ * Remembers the subjects whose grants recently changed, and the callers that changed them, so that
+ * their reads go to the primary rather than a replica that may not have replayed the change yet.
+ */
+@Service("D5B2026A-DC6C-4643-AD03-16A48241B876")
+public class ReadYourWrites {
+  private static final Logger logger = LoggerFactory.getLogger(ReadYourWrites.class);
+  private static final Long MaximumPinned = 100000L;
+
+  @Value("${io.service84.services.impersonation.readreplicas.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.services.impersonation.readreplicas.readyourwriteswindow:PT15S}")
+  private Duration window;
+
+  @Autowired private AuthenticationService authenticationService;
+
+  private Cache<UUID, Boolean> pinned;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+
+    if (!enabled || window.isZero()) {
+      return;
+    }
+
+    pinned = Caffeine.newBuilder().maximumSize(MaximumPinned).expireAfterWrite(window).build();
+  }
+
+  public void pin(UUID subject) {
+    if (pinned != null) {
+      pinned.put(subject, true);
+    }
+  }
+
+  public void pinCaller() {
+    if (pinned != null) {
+      pin(UUID.fromString(authenticationService.getSubject()));
+    }
+  }
+
+  public Boolean isPinned(UUID subject) {
+    return pinned != null && pinned.getIfPresent(subject) != null;
+  }
+
+  /** Whether the caller of the current request is pinned, false outside of a request. */
+  public Boolean isCallerPinned() {
+    if (pinned == null || RequestContextHolder.getRequestAttributes() == null) {
+      return false;
+    }
+
+    try {
+      return isPinned(UUID.fromString(authenticationService.getSubject()));
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+}
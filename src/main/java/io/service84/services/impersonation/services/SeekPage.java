@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import java.util.List;
+
+/**
+ * A page of results located by a seek key rather than an offset. The total is only present when it
+ * was counted. A page that was not modified since its version was last retrieved has no content.
+ */
+public class SeekPage<T> {
+  /** How the total of a page is computed. */
+  public enum Total {
+    Exact,
+    Estimated,
+    Omitted
+  }
+
+  private final List<T> content;
+  private final Boolean hasNext;
+  private final Long total;
+  private final String version;
+
+  public static <T> SeekPage<T> notModified(String version) {
+    return new SeekPage<>(null, null, null, version);
+  }
+
+  public SeekPage(List<T> content, Boolean hasNext, Long total) {
+    this(content, hasNext, total, null);
+  }
+
+  public SeekPage(List<T> content, Boolean hasNext, Long total, String version) {
+    this.content = content;
+    this.hasNext = hasNext;
+    this.total = total;
+    this.version = version;
+  }
+
+  public List<T> getContent() {
+    return content;
+  }
+
+  public Long getTotal() {
+    return total;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public Boolean hasNext() {
+    return hasNext;
+  }
+
+  public Boolean isModified() {
+    return content != null;
+  }
+}
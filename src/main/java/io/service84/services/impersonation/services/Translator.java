@@ -14,24 +14,40 @@
 
 package io.service84.services.impersonation.services;
 
+import java.nio.ByteBuffer;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
-import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
-import io.service84.library.standardpersistence.services.PaginationTranslator;
+import io.service84.services.impersonation.api.rest.exceptionalresults.BadRequest;
 import io.service84.services.impersonation.dto.AssumableIdentityDTO;
+import io.service84.services.impersonation.dto.AssumableIdentityOutcomeDTO;
+import io.service84.services.impersonation.dto.AssumableIdentityOutcomeDTO.OutcomeEnum;
 import io.service84.services.impersonation.dto.AssumableIdentityPageDTO;
+import io.service84.services.impersonation.dto.AssumedIdentityDTO;
+import io.service84.services.impersonation.dto.JsonWebKeyDTO;
+import io.service84.services.impersonation.dto.JsonWebKeySetDTO;
 import io.service84.services.impersonation.dto.PaginationDataDTO;
 import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
 
 @Service("F272207F-ABCB-49A3-ABF4-92EE391246EE")
-public class Translator extends PaginationTranslator {
-  public static class StandardPaginationDataDTO extends PaginationDataDTO
-      implements PaginationDataStandard {}
+public class Translator {
+  private static final Integer CursorLength = 2 * 2 * Long.BYTES;
+  private static final Integer DefaultPageSize = 20;
+  private static final Integer MaximumPageSize = 1000;
 
   public AssumableIdentityDTO translate(AssumableIdentity entity) {
     if (entity == null) {
@@ -44,29 +60,213 @@ public class Translator extends PaginationTranslator {
     return dto;
   }
 
+  public AssumableIdentityDTO translate(AssumableIdentityKey key) {
+    if (key == null) {
+      return null;
+    }
+
+    AssumableIdentityDTO dto = new AssumableIdentityDTO();
+    dto.setSubject(key.getSubject());
+    dto.setIdentity(key.getIdentity());
+    return dto;
+  }
+
   public ResponseEntity<AssumableIdentityDTO> translate(
       AssumableIdentity entity, HttpStatus status) {
     return new ResponseEntity<>(translate(entity), status);
   }
 
+  public ResponseEntity<AssumedIdentityDTO> translate(
+      AssumableIdentity entity, String assertion, HttpStatus status) {
+    AssumedIdentityDTO dto =
+        new AssumedIdentityDTO()
+            .subject(entity.getSubject())
+            .identity(entity.getIdentity())
+            .assertion(assertion);
+    return new ResponseEntity<>(dto, status);
+  }
+
+  public ResponseEntity<List<AssumableIdentityDTO>> translate(
+      List<AssumableIdentity> entities, HttpStatus status) {
+    List<AssumableIdentityDTO> dtos =
+        entities.stream().map(entity -> translate(entity)).collect(Collectors.toList());
+    return new ResponseEntity<>(dtos, status);
+  }
+
   public ResponseEntity<Void> translate(HttpStatus status) {
     return new ResponseEntity<>(status);
   }
 
-  public AssumableIdentityPageDTO translateAssumableIdentityPage(Page<AssumableIdentity> page) {
+  /** Publish the RSA verification keys by key id as a JWK set. */
+  public ResponseEntity<JsonWebKeySetDTO> translateJsonWebKeySet(
+      Map<String, RSAPublicKey> keys, HttpStatus status) {
+    List<JsonWebKeyDTO> jwks =
+        keys.entrySet().stream()
+            .map(
+                key ->
+                    new JsonWebKeyDTO()
+                        .kty("RSA")
+                        .use("sig")
+                        .alg("RS256")
+                        .kid(key.getKey())
+                        .n(AssertionSigner.encode(key.getValue().getModulus()))
+                        .e(AssertionSigner.encode(key.getValue().getPublicExponent())))
+            .collect(Collectors.toList());
+    return new ResponseEntity<>(new JsonWebKeySetDTO().keys(jwks), status);
+  }
+
+  public List<AssumableIdentityKey> translateAssumableIdentityKeys(
+      List<AssumableIdentityDTO> dtos) {
+    if (dtos == null) {
+      return null;
+    }
+
+    return dtos.stream()
+        .map(dto -> new AssumableIdentityKey(dto.getSubject(), dto.getIdentity()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Report an outcome for every requested pair, in request order, the changed outcome for the pairs
+   * that were changed and the unchanged outcome for the others.
+   */
+  public List<AssumableIdentityOutcomeDTO> translateAssumableIdentityOutcomes(
+      List<AssumableIdentityKey> requested,
+      Collection<AssumableIdentityKey> changed,
+      OutcomeEnum changedOutcome,
+      OutcomeEnum unchangedOutcome) {
+    Set<AssumableIdentityKey> changedKeys = new HashSet<>(changed);
+    return requested.stream()
+        .map(
+            key ->
+                new AssumableIdentityOutcomeDTO()
+                    .subject(key.getSubject())
+                    .identity(key.getIdentity())
+                    .outcome(changedKeys.contains(key) ? changedOutcome : unchangedOutcome))
+        .collect(Collectors.toList());
+  }
+
+  public ResponseEntity<List<AssumableIdentityOutcomeDTO>> translateAssumableIdentityOutcomes(
+      List<AssumableIdentityKey> requested,
+      Collection<AssumableIdentityKey> changed,
+      OutcomeEnum changedOutcome,
+      OutcomeEnum unchangedOutcome,
+      HttpStatus status) {
+    return new ResponseEntity<>(
+        translateAssumableIdentityOutcomes(requested, changed, changedOutcome, unchangedOutcome),
+        status);
+  }
+
+  /** Encode the seek key of the page that follows the given grant as an opaque page index. */
+  public String getCursor(AssumableIdentityKey key) {
+    ByteBuffer buffer = ByteBuffer.allocate(CursorLength);
+    buffer.putLong(key.getSubject().getMostSignificantBits());
+    buffer.putLong(key.getSubject().getLeastSignificantBits());
+    buffer.putLong(key.getIdentity().getMostSignificantBits());
+    buffer.putLong(key.getIdentity().getLeastSignificantBits());
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+  }
+
+  /** Decode an opaque page index, null or empty denotes the first page. */
+  public AssumableIdentityKey getCursor(String pageIndex) {
+    if (pageIndex == null || pageIndex.isEmpty()) {
+      return null;
+    }
+
+    byte[] bytes;
+
+    try {
+      bytes = Base64.getUrlDecoder().decode(pageIndex);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequest("Invalid page index");
+    }
+
+    if (bytes.length != CursorLength) {
+      throw new BadRequest("Invalid page index");
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    UUID subject = new UUID(buffer.getLong(), buffer.getLong());
+    UUID identity = new UUID(buffer.getLong(), buffer.getLong());
+    return new AssumableIdentityKey(subject, identity);
+  }
+
+  /**
+   * Translate the page_size query parameter, null denotes the default of 20. Sizes outside 1 to
+   * 1000 are rejected, so the service can always read one grant past the page.
+   */
+  public Integer getPageSize(Integer pageSize) {
+    if (pageSize == null) {
+      return DefaultPageSize;
+    }
+
+    if (pageSize < 1 || pageSize > MaximumPageSize) {
+      throw new BadRequest("Invalid page size " + pageSize);
+    }
+
+    return pageSize;
+  }
+
+  /** Translate an If-None-Match header into the versions it names, null denotes none. */
+  public List<String> getVersions(String ifNoneMatch) {
+    if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    return Arrays.stream(ifNoneMatch.split(","))
+        .map(String::trim)
+        .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+        .map(tag -> tag.replace("\"", ""))
+        .collect(Collectors.toList());
+  }
+
+  /** Translate the total query parameter, null denotes the exact total. */
+  public SeekPage.Total getTotal(String total) {
+    if (total == null || total.isEmpty()) {
+      return SeekPage.Total.Exact;
+    }
+
+    switch (total) {
+      case "exact":
+        return SeekPage.Total.Exact;
+      case "estimated":
+        return SeekPage.Total.Estimated;
+      case "omitted":
+        return SeekPage.Total.Omitted;
+      default:
+        throw new BadRequest("Invalid total " + total);
+    }
+  }
+
+  public AssumableIdentityPageDTO translateAssumableIdentityPage(
+      SeekPage<AssumableIdentityKey> page, String pageIndex) {
     if (page == null) {
       return null;
     }
 
+    List<AssumableIdentityKey> keys = page.getContent();
     List<AssumableIdentityDTO> content =
-        page.getContent().stream().map(e -> translate(e)).collect(Collectors.toList());
-    return new AssumableIdentityPageDTO()
-        .metadata(metadata(page, StandardPaginationDataDTO.class))
-        .content(content);
+        keys.stream().map(k -> translate(k)).collect(Collectors.toList());
+    String nextIndex = page.hasNext() ? getCursor(keys.get(keys.size() - 1)) : null;
+    Integer total = page.getTotal() == null ? null : page.getTotal().intValue();
+    PaginationDataDTO metadata =
+        new PaginationDataDTO()
+            .index(pageIndex)
+            .nextIndex(nextIndex)
+            .count(content.size())
+            .total(total);
+    return new AssumableIdentityPageDTO().metadata(metadata).content(content);
   }
 
+  /** A page that was not modified becomes an empty 304, every page carries its version as ETag. */
   public ResponseEntity<AssumableIdentityPageDTO> translateAssumableIdentityPage(
-      Page<AssumableIdentity> page, HttpStatus status) {
-    return new ResponseEntity<>(translateAssumableIdentityPage(page), status);
+      SeekPage<AssumableIdentityKey> page, String pageIndex, HttpStatus status) {
+    if (!page.isModified()) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(page.getVersion()).build();
+    }
+
+    return ResponseEntity.status(status)
+        .eTag(page.getVersion())
+        .body(translateAssumableIdentityPage(page, pageIndex));
   }
 }
@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.services.impersonation.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.service84.services.impersonation.errors.ServerError;
+
+/**
+ * A bounded cache of verified tokens keyed by the SHA-256 of the token, so the signature of a token
+ * reused across requests is only verified once. The claims are checked on every use, cached or not,
+ * by verifiers built from the same requirements. Every entry expires when its token does, tokens
+ * without an expiration are verified every time.
+ */
+@Service("5DC28C05-697B-4A59-9359-D3EFCB52AE9E")
+public class VerifiedTokenCache {
+  private static final Logger logger = LoggerFactory.getLogger(VerifiedTokenCache.class);
+  private static final String CacheName = "verified_tokens";
+
+  /** RS256 for a token whose signature has already been verified. */
+  private static class VerifiedSignature extends Algorithm {
+    private VerifiedSignature() {
+      super("RS256", "SHA256withRSA");
+    }
+
+    @Override
+    public void verify(DecodedJWT token) {}
+
+    @Override
+    public byte[] sign(byte[] contentBytes) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Value("${io.service84.library.standardauth.jwtaf.issuer}")
+  private String issuer;
+
+  @Value("${io.service84.services.impersonation.tokencache.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.services.impersonation.tokencache.maximumsize:10000}")
+  private Long maximumSize;
+
+  @Value("${io.service84.services.impersonation.tokencache.ttl:PT15M}")
+  private Duration timeToLive;
+
+  @Autowired private JwksCache jwksCache;
+  @Autowired private MeterRegistry meterRegistry;
+
+  private Cache<String, DecodedJWT> cache;
+  private JWTVerifier verifier;
+  private JWTVerifier claimsVerifier;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+
+    if (!enabled) {
+      logger.info("Verified token cache disabled");
+      return;
+    }
+
+    verifier = require(Algorithm.RSA256(jwksCache));
+    claimsVerifier = require(new VerifiedSignature());
+    cache =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(
+                new Expiry<String, DecodedJWT>() {
+                  @Override
+                  public long expireAfterCreate(String key, DecodedJWT token, long currentTime) {
+                    long remaining = token.getExpiresAt().getTime() - System.currentTimeMillis();
+                    return TimeUnit.MILLISECONDS.toNanos(
+                        Math.max(0, Math.min(remaining, timeToLive.toMillis())));
+                  }
+
+                  @Override
+                  public long expireAfterUpdate(
+                      String key, DecodedJWT token, long currentTime, long currentDuration) {
+                    return currentDuration;
+                  }
+
+                  @Override
+                  public long expireAfterRead(
+                      String key, DecodedJWT token, long currentTime, long currentDuration) {
+                    return currentDuration;
+                  }
+                })
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, CacheName);
+    logger.info("Verified token cache enabled, maximum size {}, ttl {}", maximumSize, timeToLive);
+  }
+
+  public Boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return the verified token
+   * @throws JWTVerificationException if the token is not valid
+   */
+  public DecodedJWT verify(String token) {
+    String key = hash(token);
+    DecodedJWT verified = cache.getIfPresent(key);
+
+    if (verified != null) {
+      return claimsVerifier.verify(verified);
+    }
+
+    verified = verifier.verify(token);
+
+    if (verified.getExpiresAt() != null) {
+      cache.put(key, verified);
+    }
+
+    return verified;
+  }
+
+  /** The issuer and the time claims, which the verifier checks by default. */
+  private JWTVerifier require(Algorithm algorithm) {
+    return JWT.require(algorithm).withIssuer(issuer).build();
+  }
+
+  private static String hash(String token) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return Base64.getEncoder()
+          .encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new ServerError("SHA-256 is not available");
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthContributorRegistry;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.service84.services.impersonation.exceptions.InsufficientPermission;
+import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+/**
+ * Runs once before the instance reports ready: opens the connection pool, loads the most recently
+ * changed grants into the grant cache and runs the assume, translate and serialize paths until the
+ * JIT has compiled them, so the first requests after a rollout do not pay for any of it. The
+ * readiness health group reports out of service until the warm up has finished. Ready means the
+ * pool and the compiled paths are warm, not the grant cache: the preloaded decisions expire with
+ * the cache time to live and may be evicted or flushed before any request uses them. The assume
+ * metrics count the decisions of the warm up as well.
+ */
+@Service("6ED82775-B532-4EE0-A328-B01B1E98520E")
+public class WarmUp {
+  private static final Logger logger = LoggerFactory.getLogger(WarmUp.class);
+  private static final String ContributorName = "warmUp";
+  private static final Integer PageSize = 20;
+
+  @Value("${io.service84.services.impersonation.warmup.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.services.impersonation.warmup.iterations:10000}")
+  private Integer iterations;
+
+  @Value("${io.service84.services.impersonation.warmup.grants:10000}")
+  private Integer grants;
+
+  @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+  private Integer poolSize;
+
+  @Autowired private AssertionSigner assertionSigner;
+  @Autowired private DataSource dataSource;
+  @Autowired private GrantCache grantCache;
+  @Autowired private HealthContributorRegistry healthContributorRegistry;
+  @Autowired private ImpersonationService impersonationService;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired private AssumableIdentityRepository repository;
+  @Autowired private Translator translator;
+
+  private volatile Boolean ready = false;
+
+  @PostConstruct
+  public void initialize() {
+    logger.debug("initialize");
+    healthContributorRegistry.registerContributor(
+        ContributorName,
+        (HealthIndicator) () -> ready ? Health.up().build() : Health.outOfService().build());
+  }
+
+  public Boolean isReady() {
+    return ready;
+  }
+
+  /** Warm up when enabled, the instance is ready afterwards either way. */
+  public void run() {
+    logger.debug("run");
+
+    if (enabled) {
+      long start = System.nanoTime();
+      fillPool();
+      List<AssumableIdentityKey> hotKeys = preloadGrants();
+      exercise(hotKeys);
+      logger.info(
+          "Warm up completed in {} ms, {} grants preloaded, {} iterations",
+          (System.nanoTime() - start) / 1000000,
+          hotKeys.size(),
+          iterations);
+    }
+
+    ready = true;
+  }
+
+  /** Borrow every connection of the pool at once so that each is opened now. */
+  private void fillPool() {
+    List<Connection> connections = new ArrayList<>();
+
+    try {
+      for (int index = 0; index < poolSize; index++) {
+        Connection connection = dataSource.getConnection();
+        connections.add(connection);
+        // The data source may be a lazy proxy that only connects when the connection is used
+        connection.isValid(0);
+      }
+    } catch (SQLException e) {
+      logger.warn("Opened {} of {} pooled connections", connections.size(), poolSize, e);
+    } finally {
+      for (Connection connection : connections) {
+        try {
+          connection.close();
+        } catch (SQLException e) {
+          logger.warn("Could not return a pooled connection", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * The most recently changed grants stand in for the hottest, the grants themselves do not record
+   * how often they are assumed. They are read through the modified_date index, and only help the
+   * requests that arrive within the cache time to live of the warm up.
+   */
+  private List<AssumableIdentityKey> preloadGrants() {
+    List<AssumableIdentityKey> keys = repository.findRecentKeys(grants);
+    grantCache.preload(keys, this::loadGrants);
+    return keys;
+  }
+
+  private Map<AssumableIdentityKey, Boolean> loadGrants(Set<AssumableIdentityKey> keys) {
+    Set<AssumableIdentityKey> granted = new HashSet<>(repository.findAllKeysIn(keys));
+    return keys.stream().collect(Collectors.toMap(Function.identity(), granted::contains));
+  }
+
+  private void exercise(List<AssumableIdentityKey> hotKeys) {
+    List<AssumableIdentityKey> keys =
+        hotKeys.isEmpty()
+            ? List.of(new AssumableIdentityKey(UUID.randomUUID(), UUID.randomUUID()))
+            : hotKeys;
+    List<String> scopes = List.of(ImpersonationService.AssumeIdentityScope);
+    // Holds no grants, so each of its assumes takes the denial path
+    UUID deniedSubject = UUID.randomUUID();
+
+    try {
+      for (int index = 0; index < iterations; index++) {
+        AssumableIdentityKey key = keys.get(index % keys.size());
+        AssumableIdentity assumed = new AssumableIdentity(key.getSubject(), key.getIdentity());
+        assume(key.getSubject(), scopes, key.getIdentity());
+
+        // Until the filter and the cache know the denied pairs each is a query, so only a fraction
+        if (index % 10 == 0) {
+          assume(deniedSubject, scopes, key.getIdentity());
+        }
+
+        // Each page is a query, a fraction of them compiles its path
+        if (index % 100 == 0) {
+          List<AssumableIdentityKey> page =
+              repository.findAllKeysAfter(Specification.where(null), key, PageSize);
+          objectMapper.writeValueAsBytes(
+              translator.translateAssumableIdentityPage(new SeekPage<>(page, false, null), null));
+        }
+
+        // Signing costs the same compiled or not, it is the RSA arithmetic, so it only runs now and
+        // then
+        if (index % 100 == 0) {
+          objectMapper.writeValueAsBytes(
+              translator
+                  .translate(assumed, assertionSigner.sign(assumed), HttpStatus.OK)
+                  .getBody());
+        }
+
+        objectMapper.writeValueAsBytes(
+            translator.translate(assumed, null, HttpStatus.OK).getBody());
+        objectMapper.writeValueAsBytes(translator.translate(key));
+      }
+    } catch (JsonProcessingException | RuntimeException e) {
+      // A failed warm up only costs the first requests their latency, it must not keep the instance
+      // from becoming ready
+      logger.warn("Warm up stopped early", e);
+    }
+  }
+
+  private void assume(UUID subject, List<String> scopes, UUID identity) {
+    try {
+      impersonationService.assumeIdentity(subject, scopes, identity);
+    } catch (InsufficientPermission e) {
+      // The expected outcome for the denied subject, and for the stand in key without grants
+    }
+  }
+}
@@ -0,0 +1,57 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- The schema as previously created by spring.jpa.hibernate.ddl-auto=update,
+-- written so that it is a no-op against databases that already have it.
+
+CREATE SEQUENCE IF NOT EXISTS hibernate_sequence START 1 INCREMENT 1;
+
+CREATE TABLE IF NOT EXISTS assumable_identity (
+  id uuid NOT NULL,
+  created_by varchar(255),
+  created_date timestamp,
+  identity uuid NOT NULL,
+  modified_by varchar(255),
+  modified_date timestamp,
+  subject uuid NOT NULL,
+  PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS revinfo (
+  rev int4 NOT NULL,
+  revtstmp int8,
+  PRIMARY KEY (rev)
+);
+
+CREATE TABLE IF NOT EXISTS assumable_identity_aud (
+  id uuid NOT NULL,
+  rev int4 NOT NULL,
+  revtype int2,
+  created_by varchar(255),
+  created_date timestamp,
+  identity uuid,
+  modified_by varchar(255),
+  modified_date timestamp,
+  subject uuid,
+  PRIMARY KEY (id, rev)
+);
+
+DO $$
+BEGIN
+  IF NOT EXISTS (
+    SELECT 1 FROM pg_constraint
+    WHERE conrelid = 'assumable_identity_aud'::regclass AND contype = 'f'
+  ) THEN
+    ALTER TABLE assumable_identity_aud
+      ADD CONSTRAINT assumable_identity_aud_rev_fkey FOREIGN KEY (rev) REFERENCES revinfo;
+  END IF;
+END $$;
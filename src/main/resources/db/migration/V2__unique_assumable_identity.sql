@@ -0,0 +1,24 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Grants used to be inserted without a uniqueness check, keep one row per pair.
+DELETE FROM assumable_identity duplicate
+  USING assumable_identity original
+  WHERE duplicate.subject = original.subject
+    AND duplicate.identity = original.identity
+    AND duplicate.id > original.id;
+
+CREATE UNIQUE INDEX IF NOT EXISTS assumable_identity_subject_identity_key
+  ON assumable_identity (subject, identity);
+
+CREATE INDEX IF NOT EXISTS assumable_identity_identity_idx
+  ON assumable_identity (identity);
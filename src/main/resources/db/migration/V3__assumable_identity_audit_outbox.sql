@@ -0,0 +1,28 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Audit events written with the grant changes when the audit outbox is enabled and
+-- later moved into revinfo and assumable_identity_aud, one revision per transaction.
+CREATE TABLE IF NOT EXISTS assumable_identity_audit_outbox (
+  seq bigserial NOT NULL,
+  txid int8 NOT NULL DEFAULT txid_current(),
+  revtstmp int8 NOT NULL,
+  revtype int2 NOT NULL,
+  id uuid NOT NULL,
+  created_by varchar(255),
+  created_date timestamp,
+  identity uuid,
+  modified_by varchar(255),
+  modified_date timestamp,
+  subject uuid,
+  PRIMARY KEY (seq)
+);
@@ -0,0 +1,17 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- The version of the grants and the warm up read the latest modification, built concurrently
+-- so grants stay writable. Flyway runs a migration holding only this statement outside of a
+-- transaction, a failed build leaves an invalid index that has to be dropped before retrying.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS assumable_identity_modified_date_idx
+  ON assumable_identity (modified_date);
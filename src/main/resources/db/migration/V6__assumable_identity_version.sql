@@ -0,0 +1,23 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- A single row counting the committed changes to the grants. Every statement that grants or
+-- revokes increments it in the same transaction, so reading it identifies the grants without
+-- scanning them. Writers serialize on the row for the rest of their transaction.
+CREATE TABLE IF NOT EXISTS assumable_identity_version (
+  id int2 NOT NULL DEFAULT 1,
+  version int8 NOT NULL,
+  PRIMARY KEY (id),
+  CHECK (id = 1)
+);
+
+INSERT INTO assumable_identity_version (id, version) VALUES (1, 0) ON CONFLICT DO NOTHING;
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.api.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import io.service84.library.authutils.services.AuthenticationService;
+
+public class AccessLogFilterTests {
+  private final Logger logger = (Logger) LoggerFactory.getLogger(AccessLogFilter.class);
+  private final ListAppender<ILoggingEvent> records = new ListAppender<>();
+  private final AccessLogFilter accessLogFilter = new AccessLogFilter();
+  private MockHttpServletRequest request;
+  private MockHttpServletResponse response;
+
+  @BeforeEach
+  public void setup() {
+    records.start();
+    logger.addAppender(records);
+    ReflectionTestUtils.setField(accessLogFilter, "successSampleRate", 1.0);
+    ReflectionTestUtils.setField(
+        accessLogFilter, "authenticationService", new AuthenticationService());
+    request = new MockHttpServletRequest("POST", "/assumable_identities/assume_identity");
+    request.setAsyncSupported(true);
+    response = new MockHttpServletResponse();
+  }
+
+  @AfterEach
+  public void teardown() {
+    logger.detachAppender(records);
+  }
+
+  /** Start asynchronous processing the way a handler returning a future does. */
+  private MockAsyncContext startAsync() throws Exception {
+    accessLogFilter.doFilter(
+        request,
+        response,
+        (chainRequest, chainResponse) -> {
+          WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(chainRequest);
+          asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+
+          try {
+            asyncManager.startDeferredResultProcessing(new DeferredResult<>());
+          } catch (Exception e) {
+            throw new ServletException(e);
+          }
+        });
+    return (MockAsyncContext) request.getAsyncContext();
+  }
+
+  /** The listener registered by the filter, not the ones Spring registers for itself. */
+  private List<AsyncListener> accessLogListeners(MockAsyncContext asyncContext) {
+    return asyncContext.getListeners().stream()
+        .filter(listener -> !(listener instanceof StandardServletAsyncWebRequest))
+        .collect(Collectors.toList());
+  }
+
+  private List<String> statuses() {
+    return records.list.stream()
+        .map(record -> String.valueOf(record.getArgumentArray()[3]))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void completedRecordedOnce() throws Exception {
+    MockAsyncContext asyncContext = startAsync();
+    response.setStatus(200);
+
+    asyncContext.complete();
+
+    assertEquals(List.of("status=200"), statuses());
+  }
+
+  @Test
+  public void timeoutRecordedAsServiceUnavailable() throws Exception {
+    MockAsyncContext asyncContext = startAsync();
+
+    for (AsyncListener listener : accessLogListeners(asyncContext)) {
+      listener.onTimeout(new AsyncEvent(asyncContext));
+    }
+
+    asyncContext.complete();
+
+    assertEquals(List.of("status=503"), statuses());
+  }
+
+  @Test
+  public void errorRecordedAsInternalServerError() throws Exception {
+    MockAsyncContext asyncContext = startAsync();
+
+    for (AsyncListener listener : accessLogListeners(asyncContext)) {
+      listener.onError(new AsyncEvent(asyncContext, new IllegalStateException("reset")));
+    }
+
+    assertEquals(List.of("status=500"), statuses());
+  }
+
+  @Test
+  public void errorKeepsFailureStatus() throws Exception {
+    MockAsyncContext asyncContext = startAsync();
+    response.setStatus(403);
+
+    for (AsyncListener listener : accessLogListeners(asyncContext)) {
+      listener.onError(new AsyncEvent(asyncContext, new IllegalStateException("reset")));
+    }
+
+    asyncContext.complete();
+
+    assertEquals(List.of("status=403"), statuses());
+  }
+}
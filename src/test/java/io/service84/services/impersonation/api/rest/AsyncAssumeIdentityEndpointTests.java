@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.api.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.service84.services.impersonation.api.rest.exceptionalresults.InsufficientPermissionResult;
+import io.service84.services.impersonation.api.rest.exceptionalresults.ServiceUnavailable;
+import io.service84.services.impersonation.dto.AssumedIdentityDTO;
+import io.service84.services.impersonation.dto.IdentityRequestDTO;
+import io.service84.services.impersonation.exceptions.InsufficientPermission;
+import io.service84.services.impersonation.exceptions.Overloaded;
+import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+import io.service84.services.impersonation.services.AssertionSigner;
+import io.service84.services.impersonation.services.ImpersonationService;
+import io.service84.services.impersonation.services.Translator;
+
+public class AsyncAssumeIdentityEndpointTests {
+  private final ExecutorService loaders =
+      Executors.newSingleThreadExecutor(new CustomizableThreadFactory("grant-loader-"));
+  private final ExecutorService applicationTaskExecutor =
+      Executors.newSingleThreadExecutor(new CustomizableThreadFactory("task-"));
+  private final UUID subject = UUID.randomUUID();
+  private final UUID identity = UUID.randomUUID();
+  private String signingThread;
+
+  @AfterEach
+  public void shutdown() {
+    loaders.shutdown();
+    applicationTaskExecutor.shutdown();
+  }
+
+  /**
+   * An endpoint whose lookups complete on a grant loader thread, as the batch loader does, and fail
+   * with the given failure unless it is null.
+   */
+  private AsyncAssumeIdentityEndpoint endpoint(Exception failure) {
+    ImpersonationService impersonationService =
+        new ImpersonationService() {
+          @Override
+          public CompletableFuture<AssumableIdentity> assumeIdentityAsync(UUID identity) {
+            return CompletableFuture.supplyAsync(
+                    () -> new AssumableIdentity(subject, identity), loaders)
+                .thenCompose(
+                    assumed ->
+                        failure == null
+                            ? CompletableFuture.completedFuture(assumed)
+                            : CompletableFuture.failedFuture(failure));
+          }
+        };
+    AssertionSigner assertionSigner =
+        new AssertionSigner() {
+          @Override
+          public Boolean isEnabled() {
+            return true;
+          }
+
+          @Override
+          public String sign(AssumableIdentity assumableIdentity) {
+            signingThread = Thread.currentThread().getName();
+            return "assertion";
+          }
+        };
+
+    AsyncAssumeIdentityEndpoint endpoint = new AsyncAssumeIdentityEndpoint();
+    ReflectionTestUtils.setField(endpoint, "assertionSigner", assertionSigner);
+    ReflectionTestUtils.setField(endpoint, "impersonationService", impersonationService);
+    ReflectionTestUtils.setField(endpoint, "translator", new Translator());
+    ReflectionTestUtils.setField(endpoint, "applicationTaskExecutor", applicationTaskExecutor);
+    return endpoint;
+  }
+
+  @Test
+  public void signsOffTheGrantLoaderThread() throws Exception {
+    ResponseEntity<AssumedIdentityDTO> response =
+        endpoint(null).assumeIdentity(new IdentityRequestDTO().identity(identity)).get();
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(identity, response.getBody().getIdentity());
+    assertEquals("assertion", response.getBody().getAssertion());
+    assertTrue(signingThread.startsWith("task-"), signingThread);
+  }
+
+  private Throwable failure(CompletableFuture<ResponseEntity<AssumedIdentityDTO>> response) {
+    ExecutionException e = assertThrows(ExecutionException.class, () -> response.get());
+    return e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+  }
+
+  @Test
+  public void deniedIsForbidden() {
+    Throwable cause =
+        failure(
+            endpoint(InsufficientPermission.instance())
+                .assumeIdentity(new IdentityRequestDTO().identity(identity)));
+
+    assertTrue(cause instanceof InsufficientPermissionResult, String.valueOf(cause));
+  }
+
+  @Test
+  public void overloadedIsServiceUnavailable() {
+    Throwable cause =
+        failure(
+            endpoint(Overloaded.instance())
+                .assumeIdentity(new IdentityRequestDTO().identity(identity)));
+
+    assertTrue(cause instanceof ServiceUnavailable, String.valueOf(cause));
+  }
+}
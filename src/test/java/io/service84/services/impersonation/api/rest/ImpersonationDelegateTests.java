@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.api.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.service84.services.impersonation.api.rest.exceptionalresults.InsufficientPermissionResult;
+import io.service84.services.impersonation.api.rest.exceptionalresults.InternalServerError;
+import io.service84.services.impersonation.exceptions.InsufficientPermission;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.services.ImpersonationService;
+import io.service84.services.impersonation.services.Translator;
+
+public class ImpersonationDelegateTests {
+  private final AssumableIdentityKey first =
+      new AssumableIdentityKey(UUID.randomUUID(), UUID.randomUUID());
+  private final AssumableIdentityKey second =
+      new AssumableIdentityKey(UUID.randomUUID(), UUID.randomUUID());
+  private MockHttpServletResponse response;
+
+  @BeforeEach
+  public void bindRequest() {
+    response = new MockHttpServletResponse();
+    RequestContextHolder.setRequestAttributes(
+        new ServletRequestAttributes(new MockHttpServletRequest(), response));
+  }
+
+  @AfterEach
+  public void unbindRequest() {
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  /** A delegate whose export passes the given stream, or denies when it is null. */
+  private ImpersonationDelegate delegate(Stream<AssumableIdentityKey> keys) {
+    ImpersonationService impersonationService =
+        new ImpersonationService() {
+          @Override
+          public void exportAssumableIdentities(
+              List<UUID> subjects,
+              List<UUID> identities,
+              Consumer<Stream<AssumableIdentityKey>> consumer)
+              throws InsufficientPermission {
+            if (keys == null) {
+              throw InsufficientPermission.instance();
+            }
+
+            consumer.accept(keys);
+          }
+        };
+    ImpersonationDelegate delegate = new ImpersonationDelegate();
+    ReflectionTestUtils.setField(delegate, "impersonationService", impersonationService);
+    ReflectionTestUtils.setField(delegate, "objectMapper", new ObjectMapper());
+    ReflectionTestUtils.setField(delegate, "translator", new Translator());
+    return delegate;
+  }
+
+  private String line(AssumableIdentityKey key) {
+    return "{\"subject\":\"" + key.getSubject() + "\",\"identity\":\"" + key.getIdentity() + "\"}";
+  }
+
+  @Test
+  public void exportEndsWithTrailer() throws Exception {
+    delegate(Stream.of(first, second)).exportAssumableIdentities(null, null, null);
+
+    assertEquals("application/x-ndjson", response.getContentType());
+    assertEquals(
+        Arrays.asList(line(first), line(second), "{\"count\":2}"),
+        Arrays.asList(response.getContentAsString().split("\n")));
+  }
+
+  @Test
+  public void emptyExportEndsWithTrailer() throws Exception {
+    delegate(Stream.empty()).exportAssumableIdentities(null, null, null);
+
+    assertEquals("{\"count\":0}\n", response.getContentAsString());
+  }
+
+  @Test
+  public void deniedExportLeavesResponseUntouched() throws Exception {
+    ImpersonationDelegate delegate = delegate(null);
+
+    assertThrows(
+        InsufficientPermissionResult.class,
+        () -> delegate.exportAssumableIdentities(null, null, null));
+    assertNull(response.getContentType());
+    assertFalse(response.isCommitted());
+    assertEquals("", response.getContentAsString());
+  }
+
+  @Test
+  public void interruptedExportHasNoTrailer() throws Exception {
+    Stream<AssumableIdentityKey> keys =
+        Stream.of(first, second)
+            .peek(
+                key -> {
+                  if (key == second) {
+                    throw new IllegalStateException("connection lost");
+                  }
+                });
+    ImpersonationDelegate delegate = delegate(keys);
+
+    assertThrows(
+        InternalServerError.class, () -> delegate.exportAssumableIdentities(null, null, null));
+    assertEquals(line(first) + "\n", response.getContentAsString());
+  }
+}
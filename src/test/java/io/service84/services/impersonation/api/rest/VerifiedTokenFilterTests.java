@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.api.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.service84.services.impersonation.services.CachedAuthenticationService;
+import io.service84.services.impersonation.services.JwksCache;
+import io.service84.services.impersonation.services.VerifiedTokenCache;
+
+public class VerifiedTokenFilterTests {
+  private static final String Issuer = "https://issuer.example";
+  private static final String KeyId = "signing";
+
+  private static KeyPair keyPair;
+
+  @BeforeAll
+  public static void generateKeyPair() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    keyPair = generator.generateKeyPair();
+  }
+
+  private final AtomicInteger lookups = new AtomicInteger();
+  private final CachedAuthenticationService cachedAuthenticationService =
+      new CachedAuthenticationService();
+  private final VerifiedTokenFilter verifiedTokenFilter = new VerifiedTokenFilter();
+
+  @BeforeEach
+  public void setup() {
+    JwksCache jwksCache =
+        new JwksCache() {
+          @Override
+          public RSAPublicKey getPublicKeyById(String keyId) {
+            lookups.incrementAndGet();
+            return KeyId.equals(keyId) ? (RSAPublicKey) keyPair.getPublic() : null;
+          }
+        };
+    VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache();
+    ReflectionTestUtils.setField(verifiedTokenCache, "issuer", Issuer);
+    ReflectionTestUtils.setField(verifiedTokenCache, "enabled", true);
+    ReflectionTestUtils.setField(verifiedTokenCache, "maximumSize", 100L);
+    ReflectionTestUtils.setField(verifiedTokenCache, "timeToLive", Duration.ofMinutes(15));
+    ReflectionTestUtils.setField(verifiedTokenCache, "jwksCache", jwksCache);
+    ReflectionTestUtils.setField(verifiedTokenCache, "meterRegistry", new SimpleMeterRegistry());
+    verifiedTokenCache.initialize();
+    ReflectionTestUtils.setField(cachedAuthenticationService, "scopesClaim", "scope");
+    ReflectionTestUtils.setField(
+        cachedAuthenticationService, "verifiedTokenCache", verifiedTokenCache);
+    ReflectionTestUtils.setField(
+        verifiedTokenFilter, "cachedAuthenticationService", cachedAuthenticationService);
+  }
+
+  @AfterEach
+  public void teardown() {
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  private static String token() {
+    return JWT.create()
+        .withIssuer(Issuer)
+        .withKeyId(KeyId)
+        .withSubject("subject")
+        .withClaim("scope", "impersonation:assume_identity impersonation:get_identities")
+        .withExpiresAt(new Date(System.currentTimeMillis() + 60000))
+        .sign(Algorithm.RSA256(null, (RSAPrivateKey) keyPair.getPrivate()));
+  }
+
+  private static MockHttpServletRequest request(String token) {
+    MockHttpServletRequest request =
+        new MockHttpServletRequest("POST", "/assumable_identities/assume_identity");
+    request.addHeader("Authentication", "Bearer " + token);
+    return request;
+  }
+
+  /** Run the filter with a chain that looks up the authentication the way the handlers do. */
+  private String filter(HttpServletRequest request, List<String> scopes) throws Exception {
+    AtomicReference<String> subject = new AtomicReference<>();
+    verifiedTokenFilter.doFilter(
+        request,
+        new MockHttpServletResponse(),
+        (chainRequest, chainResponse) -> {
+          RequestContextHolder.setRequestAttributes(
+              new ServletRequestAttributes((HttpServletRequest) chainRequest));
+          subject.set(cachedAuthenticationService.getSubject());
+          scopes.addAll(cachedAuthenticationService.getScopes());
+          RequestContextHolder.resetRequestAttributes();
+        });
+    return subject.get();
+  }
+
+  @Test
+  public void requestsWithTheSameTokenAreVerifiedOnce() throws Exception {
+    String token = token();
+    List<String> firstScopes = new ArrayList<>();
+    List<String> secondScopes = new ArrayList<>();
+
+    assertEquals("subject", filter(request(token), firstScopes));
+    assertEquals("subject", filter(request(token), secondScopes));
+
+    List<String> expected =
+        List.of("impersonation:assume_identity", "impersonation:get_identities");
+    assertEquals(expected, firstScopes);
+    assertEquals(expected, secondScopes);
+    assertEquals(1, lookups.get());
+  }
+
+  @Test
+  public void invalidTokenIsPassedOn() throws Exception {
+    MockHttpServletRequest request = request(token() + "x");
+    AtomicInteger calls = new AtomicInteger();
+
+    verifiedTokenFilter.doFilter(
+        request,
+        new MockHttpServletResponse(),
+        (chainRequest, chainResponse) -> calls.incrementAndGet());
+
+    assertEquals(1, calls.get());
+    assertNull(cachedAuthenticationService.verifyRequest(request));
+  }
+}
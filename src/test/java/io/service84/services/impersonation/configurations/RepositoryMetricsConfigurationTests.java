@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.configurations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+public class RepositoryMetricsConfigurationTests {
+  private final MeterRegistry registry = new SimpleMeterRegistry();
+  private final AtomicInteger lookups = new AtomicInteger();
+
+  /** A provider of the registry that counts how often it is looked up. */
+  private final ObjectProvider<MeterRegistry> meterRegistry =
+      new ObjectProvider<>() {
+        @Override
+        public MeterRegistry getObject() {
+          lookups.incrementAndGet();
+          return registry;
+        }
+
+        @Override
+        public MeterRegistry getObject(Object... args) {
+          return getObject();
+        }
+
+        @Override
+        public MeterRegistry getIfAvailable() {
+          return getObject();
+        }
+
+        @Override
+        public MeterRegistry getIfUnique() {
+          return getObject();
+        }
+      };
+
+  private MethodInvocation invocation(Method method, RuntimeException failure) {
+    return new MethodInvocation() {
+      @Override
+      public Method getMethod() {
+        return method;
+      }
+
+      @Override
+      public Object[] getArguments() {
+        return new Object[0];
+      }
+
+      @Override
+      public Object proceed() {
+        if (failure != null) {
+          throw failure;
+        }
+
+        return "version";
+      }
+
+      @Override
+      public Object getThis() {
+        return null;
+      }
+
+      @Override
+      public AccessibleObject getStaticPart() {
+        return method;
+      }
+    };
+  }
+
+  private long count(String method, String outcome) {
+    return registry
+        .get("impersonation.repository.calls")
+        .tag("method", method)
+        .tag("outcome", outcome)
+        .timer()
+        .count();
+  }
+
+  @Test
+  public void timersAreBuiltOncePerMethodAndOutcome() throws Throwable {
+    RepositoryMetricsConfiguration.RepositoryTimer repositoryTimer =
+        new RepositoryMetricsConfiguration.RepositoryTimer(meterRegistry);
+    Method findVersion = AssumableIdentityRepository.class.getMethod("findVersion");
+    Method count = AssumableIdentityRepository.class.getMethod("count");
+
+    for (int call = 0; call < 3; call++) {
+      repositoryTimer.invoke(invocation(findVersion, null));
+      repositoryTimer.invoke(invocation(count, null));
+      assertThrows(
+          IllegalStateException.class,
+          () -> repositoryTimer.invoke(invocation(findVersion, new IllegalStateException())));
+    }
+
+    assertEquals(3, lookups.get());
+    assertEquals(3, count("findVersion", "success"));
+    assertEquals(3, count("findVersion", "failure"));
+    assertEquals(3, count("count", "success"));
+  }
+}
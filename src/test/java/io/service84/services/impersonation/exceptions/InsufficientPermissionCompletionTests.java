@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.exceptions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+
+public class InsufficientPermissionCompletionTests {
+  @Test
+  public void hasNoStackTrace() {
+    assertEquals(0, new InsufficientPermissionCompletion().getStackTrace().length);
+  }
+
+  @Test
+  public void causeIsTheDenial() {
+    assertSame(
+        InsufficientPermission.instance(), new InsufficientPermissionCompletion().getCause());
+  }
+
+  @Test
+  public void sharedDenialKeepsNoSuppressedExceptions() {
+    InsufficientPermission.instance().addSuppressed(new IllegalStateException());
+
+    assertEquals(0, InsufficientPermission.instance().getSuppressed().length);
+  }
+
+  @Test
+  public void isNotWrappedByCompletionStages() {
+    InsufficientPermissionCompletion denial = new InsufficientPermissionCompletion();
+    CompletableFuture<Object> denied =
+        CompletableFuture.completedFuture(false)
+            .thenApply(
+                granted -> {
+                  throw denial;
+                })
+            .thenApply(granted -> granted);
+
+    CompletionException e = assertThrows(CompletionException.class, () -> denied.join());
+    assertSame(denial, e);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+public class MigrationTests {
+  private static final String InsertGrant =
+      "INSERT INTO assumable_identity (id, subject, identity) VALUES (?, ?, ?)";
+
+  private static EmbeddedPostgres postgres;
+
+  @BeforeAll
+  public static void startDatabase() throws IOException {
+    postgres = EmbeddedPostgres.start();
+  }
+
+  @AfterAll
+  public static void stopDatabase() throws IOException {
+    postgres.close();
+  }
+
+  @Test
+  public void upgradeRemovesDuplicatesAndBuildsValidIndexes() {
+    DataSource dataSource = database();
+    Flyway.configure().dataSource(dataSource).target("1").load().migrate();
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    UUID subject = UUID.randomUUID();
+    UUID identity = UUID.randomUUID();
+    jdbcTemplate.update(InsertGrant, UUID.randomUUID(), subject, identity);
+    jdbcTemplate.update(InsertGrant, UUID.randomUUID(), subject, identity);
+
+    Flyway.configure().dataSource(dataSource).load().migrate();
+
+    assertUpgraded(jdbcTemplate, subject, identity);
+  }
+
+  @Test
+  public void upgradeReplacesAnInvalidIndex() {
+    DataSource dataSource = database();
+    Flyway.configure().dataSource(dataSource).target("1").load().migrate();
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    UUID subject = UUID.randomUUID();
+    UUID identity = UUID.randomUUID();
+    jdbcTemplate.update(InsertGrant, UUID.randomUUID(), subject, identity);
+    jdbcTemplate.update(InsertGrant, UUID.randomUUID(), subject, identity);
+    // A concurrent build by hand that fails on the duplicate leaves an invalid index behind
+    assertThrows(
+        DuplicateKeyException.class,
+        () ->
+            jdbcTemplate.execute(
+                "CREATE UNIQUE INDEX CONCURRENTLY assumable_identity_subject_identity_key"
+                    + " ON assumable_identity (subject, identity)"));
+
+    Flyway.configure().dataSource(dataSource).load().migrate();
+
+    assertUpgraded(jdbcTemplate, subject, identity);
+  }
+
+  private static DataSource database() {
+    String name = "migration_" + UUID.randomUUID().toString().replace("-", "");
+    new JdbcTemplate(postgres.getPostgresDatabase()).execute("CREATE DATABASE " + name);
+    return postgres.getDatabase("postgres", name);
+  }
+
+  private static void assertUpgraded(JdbcTemplate jdbcTemplate, UUID subject, UUID identity) {
+    assertEquals(
+        1,
+        jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM assumable_identity WHERE subject = ? AND identity = ?",
+            Integer.class,
+            subject,
+            identity));
+    assertEquals(
+        Map.of(
+            "assumable_identity_subject_identity_key", true,
+            "assumable_identity_identity_idx", true,
+            "assumable_identity_modified_date_idx", true),
+        Map.copyOf(
+            jdbcTemplate.query(
+                "SELECT index.relname, pg_index.indisvalid FROM pg_index"
+                    + " JOIN pg_class index ON index.oid = pg_index.indexrelid"
+                    + " WHERE pg_index.indrelid = 'assumable_identity'::regclass"
+                    + " AND NOT pg_index.indisprimary",
+                resultSet -> {
+                  Map<String, Boolean> indexes = new HashMap<>();
+
+                  while (resultSet.next()) {
+                    indexes.put(resultSet.getString(1), resultSet.getBoolean(2));
+                  }
+
+                  return indexes;
+                })));
+    assertThrows(
+        DuplicateKeyException.class,
+        () -> jdbcTemplate.update(InsertGrant, UUID.randomUUID(), subject, identity));
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class ReplicaRoutingDataSourceTests {
+  private static final Duration MaximumLag = Duration.ofSeconds(5);
+
+  private static class FakeReplica {
+    private volatile Double lag = 0d;
+    private volatile Boolean reachable = true;
+
+    private DataSource dataSource() {
+      return proxy(
+          DataSource.class,
+          (method, args) -> {
+            if (!reachable) {
+              throw new SQLException("Connection refused");
+            }
+
+            return proxy(
+                Connection.class,
+                (connectionMethod, connectionArgs) ->
+                    proxy(
+                        Statement.class,
+                        (statementMethod, statementArgs) ->
+                            proxy(
+                                ResultSet.class,
+                                (resultMethod, resultArgs) ->
+                                    "getDouble".equals(resultMethod) ? lag : true)));
+          });
+    }
+  }
+
+  private interface Handler {
+    Object handle(String method, Object[] args) throws Throwable;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, Handler handler) {
+    return (T)
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "toString":
+                  return type.getSimpleName();
+                case "close":
+                  return null;
+                default:
+                  return handler.handle(method.getName(), args);
+              }
+            });
+  }
+
+  private FakeReplica east;
+  private FakeReplica west;
+  private AtomicBoolean primaryRequired;
+  private ReplicaRoutingDataSource dataSource;
+
+  @BeforeEach
+  public void createDataSource() {
+    east = new FakeReplica();
+    west = new FakeReplica();
+    primaryRequired = new AtomicBoolean(false);
+    Map<String, DataSource> replicas = new LinkedHashMap<>();
+    replicas.put("east", east.dataSource());
+    replicas.put("west", west.dataSource());
+    dataSource =
+        new ReplicaRoutingDataSource(
+            new FakeReplica().dataSource(), replicas, primaryRequired::get);
+  }
+
+  @AfterEach
+  public void clearTransaction() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+  }
+
+  @Test
+  public void writesGoToThePrimary() {
+    assertEquals(List.of("primary", "primary"), route(2));
+  }
+
+  @Test
+  public void readsAlternateBetweenReplicas() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+    assertEquals(List.of("east", "west", "east", "west"), route(4));
+  }
+
+  @Test
+  public void requiredPrimaryServesReads() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    primaryRequired.set(true);
+
+    assertEquals(List.of("primary", "primary"), route(2));
+  }
+
+  @Test
+  public void laggingReplicaIsSkippedUntilItCatchesUp() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    west.lag = 6d;
+    dataSource.checkHealth(MaximumLag);
+
+    assertEquals(List.of("east", "east", "east"), route(3));
+
+    west.lag = 5d;
+    dataSource.checkHealth(MaximumLag);
+
+    assertEquals(2, route(4).stream().filter("west"::equals).count());
+  }
+
+  @Test
+  public void unreachableReplicaIsSkipped() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    east.reachable = false;
+    dataSource.checkHealth(MaximumLag);
+
+    assertEquals(List.of("west", "west", "west"), route(3));
+  }
+
+  @Test
+  public void readsFallBackToThePrimary() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    east.reachable = false;
+    west.lag = 60d;
+    dataSource.checkHealth(MaximumLag);
+
+    assertEquals(List.of("primary", "primary"), route(2));
+  }
+
+  private List<Object> route(Integer count) {
+    List<Object> keys = new ArrayList<>();
+
+    for (int index = 0; index < count; index++) {
+      keys.add(dataSource.determineCurrentLookupKey());
+    }
+
+    return keys;
+  }
+}
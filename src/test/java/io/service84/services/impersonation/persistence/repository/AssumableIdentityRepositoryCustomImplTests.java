@@ -0,0 +1,289 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.persistence.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.AuditorAware;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+public class AssumableIdentityRepositoryCustomImplTests {
+  private static EmbeddedPostgres postgres;
+  private static JdbcTemplate jdbcTemplate;
+
+  private AssumableIdentityRepositoryCustomImpl repository;
+
+  @BeforeAll
+  public static void startDatabase() throws IOException {
+    postgres = EmbeddedPostgres.start();
+    Flyway.configure().dataSource(postgres.getPostgresDatabase()).load().migrate();
+    jdbcTemplate = new JdbcTemplate(postgres.getPostgresDatabase());
+  }
+
+  @AfterAll
+  public static void stopDatabase() throws IOException {
+    postgres.close();
+  }
+
+  @BeforeEach
+  public void createRepository() {
+    jdbcTemplate.execute(
+        "TRUNCATE assumable_identity, assumable_identity_aud, revinfo,"
+            + " assumable_identity_audit_outbox");
+    repository = new AssumableIdentityRepositoryCustomImpl();
+    ReflectionTestUtils.setField(repository, "jdbcTemplate", jdbcTemplate);
+    AuditorAware<String> auditorAware = () -> Optional.of("tester");
+    ReflectionTestUtils.setField(repository, "auditorAware", auditorAware);
+    ReflectionTestUtils.setField(repository, "auditOutboxEnabled", false);
+    ReflectionTestUtils.setField(repository, "exportFetchSize", 1000);
+    repository.initialize();
+  }
+
+  @Test
+  public void versionIsStableWithoutChanges() {
+    repository.insertIfAbsent(UUID.randomUUID(), UUID.randomUUID());
+    String version = repository.findVersion();
+
+    jdbcTemplate.execute("SELECT txid_current()");
+
+    assertEquals(version, repository.findVersion());
+  }
+
+  @Test
+  public void versionChangesOnGrant() {
+    String version = repository.findVersion();
+
+    repository.insertIfAbsent(UUID.randomUUID(), UUID.randomUUID());
+
+    assertNotEquals(version, repository.findVersion());
+  }
+
+  @Test
+  public void versionChangesOnRevoke() {
+    UUID subject = UUID.randomUUID();
+    UUID identity = UUID.randomUUID();
+    repository.insertIfAbsent(subject, identity);
+    repository.insertIfAbsent(UUID.randomUUID(), UUID.randomUUID());
+    String version = repository.findVersion();
+
+    repository.deleteByKey(subject, identity);
+
+    assertNotEquals(version, repository.findVersion());
+  }
+
+  @Test
+  public void versionChangesOnRevokeAndGrantAgain() {
+    UUID subject = UUID.randomUUID();
+    UUID identity = UUID.randomUUID();
+    repository.insertIfAbsent(subject, identity);
+    String version = repository.findVersion();
+
+    repository.deleteByKey(subject, identity);
+    repository.insertIfAbsent(subject, identity);
+
+    assertNotEquals(version, repository.findVersion());
+  }
+
+  @Test
+  public void versionChangesWhenCountAndLatestStampDoNot() {
+    List<AssumableIdentityKey> keys = keys(3);
+    repository.insertIfAbsent(keys.get(0).getSubject(), keys.get(0).getIdentity());
+    repository.insertIfAbsent(keys.get(1).getSubject(), keys.get(1).getIdentity());
+    // Stamped by an instance whose clock runs ahead
+    jdbcTemplate.update(
+        "UPDATE assumable_identity SET modified_date = now() + interval '1 hour'"
+            + " WHERE subject = ?",
+        keys.get(1).getSubject());
+    String version = repository.findVersion();
+
+    repository.deleteByKey(keys.get(0).getSubject(), keys.get(0).getIdentity());
+    repository.insertIfAbsent(keys.get(2).getSubject(), keys.get(2).getIdentity());
+
+    assertNotEquals(version, repository.findVersion());
+  }
+
+  @Test
+  public void versionChangesOnBulkGrantAndRevoke() {
+    List<AssumableIdentityKey> keys = keys(2);
+    String version = repository.findVersion();
+
+    repository.insertAllIfAbsent(keys);
+    String granted = repository.findVersion();
+    repository.deleteAllByKey(keys);
+
+    assertNotEquals(version, granted);
+    assertNotEquals(granted, repository.findVersion());
+  }
+
+  @Test
+  public void versionIgnoresUnchangedGrant() {
+    UUID subject = UUID.randomUUID();
+    UUID identity = UUID.randomUUID();
+    repository.insertIfAbsent(subject, identity);
+    String version = repository.findVersion();
+
+    repository.insertIfAbsent(subject, identity);
+
+    assertEquals(version, repository.findVersion());
+  }
+
+  @Test
+  public void recentKeysNewestFirst() {
+    List<AssumableIdentityKey> keys = keys(3);
+    keys.forEach(key -> repository.insertIfAbsent(key.getSubject(), key.getIdentity()));
+
+    assertEquals(List.of(keys.get(2), keys.get(1)), repository.findRecentKeys(2));
+  }
+
+  @Test
+  public void recentKeysReadTheModifiedDateIndex() {
+    String plan =
+        jdbcTemplate.execute(
+            (Connection connection) -> {
+              try (Statement statement = connection.createStatement()) {
+                statement.execute("SET enable_seqscan = off");
+
+                try (ResultSet resultSet =
+                    statement.executeQuery(
+                        "EXPLAIN SELECT subject, identity FROM assumable_identity"
+                            + " ORDER BY modified_date DESC LIMIT 10")) {
+                  StringBuilder lines = new StringBuilder();
+
+                  while (resultSet.next()) {
+                    lines.append(resultSet.getString(1)).append('\n');
+                  }
+
+                  return lines.toString();
+                }
+              }
+            });
+
+    assertTrue(plan.contains("assumable_identity_modified_date_idx"), plan);
+    assertFalse(plan.contains("Sort"), plan);
+  }
+
+  @Test
+  public void insertAllReturnsOnlyNewGrants() {
+    List<AssumableIdentityKey> keys = keys(3);
+    repository.insertIfAbsent(keys.get(0).getSubject(), keys.get(0).getIdentity());
+
+    List<AssumableIdentityKey> inserted = repository.insertAllIfAbsent(keys);
+
+    assertEquals(Set.copyOf(keys.subList(1, 3)), Set.copyOf(inserted));
+    assertEquals(3, count("SELECT count(*) FROM assumable_identity"));
+    assertEquals(3, count("SELECT count(*) FROM assumable_identity_aud WHERE revtype = 0"));
+    assertEquals(2, count("SELECT count(*) FROM revinfo"));
+  }
+
+  @Test
+  public void insertAllOfNothingNewWritesNoRevision() {
+    List<AssumableIdentityKey> keys = keys(2);
+    repository.insertAllIfAbsent(keys);
+
+    assertTrue(repository.insertAllIfAbsent(keys).isEmpty());
+    assertEquals(1, count("SELECT count(*) FROM revinfo"));
+  }
+
+  @Test
+  public void deleteAllReturnsOnlyDeletedGrants() {
+    List<AssumableIdentityKey> keys = keys(3);
+    repository.insertAllIfAbsent(keys.subList(0, 2));
+
+    List<AssumableIdentityKey> deleted = repository.deleteAllByKey(keys.subList(1, 3));
+
+    assertEquals(List.of(keys.get(1)), deleted);
+    assertEquals(List.of(keys.get(0)), repository.findAllKeysIn(keys));
+    assertEquals(1, count("SELECT count(*) FROM assumable_identity_aud WHERE revtype = 2"));
+  }
+
+  @Test
+  public void findAllKeysInReturnsGrantedPairs() {
+    List<AssumableIdentityKey> keys = keys(3);
+    repository.insertAllIfAbsent(keys.subList(0, 2));
+    AssumableIdentityKey crossed =
+        new AssumableIdentityKey(keys.get(0).getSubject(), keys.get(1).getIdentity());
+
+    List<AssumableIdentityKey> found =
+        repository.findAllKeysIn(List.of(keys.get(0), keys.get(2), crossed));
+
+    assertEquals(List.of(keys.get(0)), found);
+  }
+
+  @Test
+  public void findIdentitiesInReturnsGrantedIdentities() {
+    UUID subject = UUID.randomUUID();
+    UUID granted = UUID.randomUUID();
+    UUID other = UUID.randomUUID();
+    repository.insertIfAbsent(subject, granted);
+    repository.insertIfAbsent(UUID.randomUUID(), other);
+
+    assertEquals(List.of(granted), repository.findIdentitiesIn(subject, List.of(granted, other)));
+  }
+
+  @Test
+  public void outboxDrainsIntoRevisions() {
+    ReflectionTestUtils.setField(repository, "auditOutboxEnabled", true);
+    repository.initialize();
+    List<AssumableIdentityKey> keys = keys(2);
+    repository.insertAllIfAbsent(keys);
+    repository.deleteByKey(keys.get(0).getSubject(), keys.get(0).getIdentity());
+
+    assertEquals(3, count("SELECT count(*) FROM assumable_identity_audit_outbox"));
+    assertEquals(0, count("SELECT count(*) FROM assumable_identity_aud"));
+
+    assertEquals(3, repository.drainAuditOutbox(100));
+
+    assertEquals(0, count("SELECT count(*) FROM assumable_identity_audit_outbox"));
+    assertEquals(3, count("SELECT count(*) FROM assumable_identity_aud"));
+    assertEquals(2, count("SELECT count(*) FROM revinfo"));
+    assertEquals(0, repository.drainAuditOutbox(100));
+  }
+
+  private Integer count(String sql) {
+    return jdbcTemplate.queryForObject(sql, Integer.class);
+  }
+
+  private List<AssumableIdentityKey> keys(Integer count) {
+    List<AssumableIdentityKey> keys = new ArrayList<>();
+
+    for (int index = 0; index < count; index++) {
+      keys.add(new AssumableIdentityKey(UUID.randomUUID(), UUID.randomUUID()));
+    }
+
+    return keys;
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+import io.service84.services.impersonation.errors.ServerError;
+import io.service84.services.impersonation.persistence.model.AssumableIdentity;
+
+public class AssertionSignerTests {
+  // The example key and thumbprint of RFC 7638 section 3.1
+  private static final String Rfc7638Modulus =
+      "0vx7agoebGcQSuuPiLJXZptN9nndrQmbXEps2aiAFbWhM78LhWx4cbbfAAtVT86zwu1RK7aPFFxuhDR1L6tSoc_BJECPeb"
+          + "WKRXjBZCiFV4n3oknjhMstn64tZ_2W-5JsGY4Hc5n9yBXArwl93lqt7_RN5w6Cf0h4QyQ5v-65YGjQR0_FDW2Qvzq"
+          + "Y368QQMicAtaSqzs8KJZgnYb9c7d0zgdAZHzu6qMQvRL5hajrn1n91CbOpbISD08qNLyrdkt-bFTWhAI4vMQFh6WeZ"
+          + "u0fM4lFd2NcRwr3XPksINHaQ-G_xBniIqbw0Ls1jF44-csFCur-kEgU8awapJzKnqDKgw";
+  private static final String Rfc7638Thumbprint = "NzbLsXh8uDCcd-6MNwXF4W_7noWXFZAfHkxZsRGC9Xs";
+
+  private static KeyPair generateKeyPair() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    return generator.generateKeyPair();
+  }
+
+  private static String base64(byte[] der) {
+    return Base64.getEncoder().encodeToString(der);
+  }
+
+  private static AssertionSigner assertionSigner(
+      String privateKey, List<String> previousPublicKeys, String... activeProfiles) {
+    MockEnvironment environment = new MockEnvironment();
+    environment.setActiveProfiles(activeProfiles);
+    AssertionSigner assertionSigner = new AssertionSigner();
+    ReflectionTestUtils.setField(assertionSigner, "enabled", true);
+    ReflectionTestUtils.setField(assertionSigner, "issuer", "impersonation.test");
+    ReflectionTestUtils.setField(assertionSigner, "lifetime", Duration.ofMinutes(5));
+    ReflectionTestUtils.setField(assertionSigner, "privateKey", privateKey);
+    ReflectionTestUtils.setField(assertionSigner, "keyId", "");
+    ReflectionTestUtils.setField(assertionSigner, "previousPublicKeys", previousPublicKeys);
+    ReflectionTestUtils.setField(assertionSigner, "environment", environment);
+    assertionSigner.initialize();
+    return assertionSigner;
+  }
+
+  @Test
+  public void disabledSignsNothing() {
+    AssertionSigner assertionSigner = new AssertionSigner();
+    ReflectionTestUtils.setField(assertionSigner, "enabled", false);
+    assertionSigner.initialize();
+
+    assertFalse(assertionSigner.isEnabled());
+    assertTrue(assertionSigner.getPublicKeys().isEmpty());
+    assertNull(assertionSigner.sign(new AssumableIdentity(UUID.randomUUID(), UUID.randomUUID())));
+  }
+
+  @Test
+  public void noKeyFailsStartup() {
+    assertThrows(ServerError.class, () -> assertionSigner("", List.of()));
+    assertThrows(ServerError.class, () -> assertionSigner("", List.of(), "prod"));
+  }
+
+  @Test
+  public void noKeyGeneratesOneInDev() {
+    AssertionSigner assertionSigner = assertionSigner("", List.of(), "dev");
+    assertTrue(assertionSigner.isEnabled());
+    assertEquals(1, assertionSigner.getPublicKeys().size());
+  }
+
+  @Test
+  public void assertionVerifiesWithThePublishedKey() throws Exception {
+    KeyPair keyPair = generateKeyPair();
+    AssertionSigner assertionSigner =
+        assertionSigner(base64(keyPair.getPrivate().getEncoded()), List.of());
+    UUID subject = UUID.randomUUID();
+    UUID identity = UUID.randomUUID();
+
+    String assertion = assertionSigner.sign(new AssumableIdentity(subject, identity));
+
+    DecodedJWT decoded = JWT.decode(assertion);
+    RSAPublicKey publicKey = assertionSigner.getPublicKeys().get(decoded.getKeyId());
+    assertEquals(keyPair.getPublic(), publicKey);
+    JWT.require(Algorithm.RSA256(publicKey, null))
+        .withIssuer("impersonation.test")
+        .withSubject(subject.toString())
+        .withClaim("identity", identity.toString())
+        .build()
+        .verify(assertion);
+  }
+
+  @Test
+  public void previousKeysArePublishedAfterTheSigningKey() throws Exception {
+    KeyPair current = generateKeyPair();
+    KeyPair previous = generateKeyPair();
+    KeyPair named = generateKeyPair();
+    String pem =
+        "-----BEGIN PUBLIC KEY-----\n"
+            + Base64.getMimeEncoder().encodeToString(previous.getPublic().getEncoded())
+            + "\n-----END PUBLIC KEY-----";
+
+    AssertionSigner assertionSigner =
+        assertionSigner(
+            base64(current.getPrivate().getEncoded()),
+            List.of(pem, "2020-key:" + base64(named.getPublic().getEncoded())));
+
+    List<String> keyIds = List.copyOf(assertionSigner.getPublicKeys().keySet());
+    assertEquals(3, keyIds.size());
+    assertEquals(assertionSigner.getKeyId(), keyIds.get(0));
+    assertEquals(current.getPublic(), assertionSigner.getPublicKeys().get(keyIds.get(0)));
+    assertEquals(previous.getPublic(), assertionSigner.getPublicKeys().get(keyIds.get(1)));
+    assertEquals(named.getPublic(), assertionSigner.getPublicKeys().get("2020-key"));
+  }
+
+  @Test
+  public void previousKeyIdIsTheThumbprint() throws Exception {
+    RSAPublicKey rfc7638Key =
+        (RSAPublicKey)
+            KeyFactory.getInstance("RSA")
+                .generatePublic(
+                    new RSAPublicKeySpec(
+                        new BigInteger(1, Base64.getUrlDecoder().decode(Rfc7638Modulus)),
+                        BigInteger.valueOf(65537)));
+
+    AssertionSigner assertionSigner =
+        assertionSigner(
+            base64(generateKeyPair().getPrivate().getEncoded()),
+            List.of(base64(rfc7638Key.getEncoded())));
+
+    assertEquals(rfc7638Key, assertionSigner.getPublicKeys().get(Rfc7638Thumbprint));
+    assertEquals(Rfc7638Modulus, AssertionSigner.encode(rfc7638Key.getModulus()));
+  }
+
+  @Test
+  public void invalidPreviousKeyFailsStartup() throws Exception {
+    String privateKey = base64(generateKeyPair().getPrivate().getEncoded());
+    assertThrows(ServerError.class, () -> assertionSigner(privateKey, List.of("not a key")));
+  }
+}
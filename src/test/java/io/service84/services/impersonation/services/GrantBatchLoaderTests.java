@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.service84.services.impersonation.exceptions.Overloaded;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+public class GrantBatchLoaderTests {
+  private final CountDownLatch querying = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private GrantBatchLoader grantBatchLoader;
+
+  @AfterEach
+  public void destroy() {
+    release.countDown();
+    grantBatchLoader.destroy();
+  }
+
+  /** A loader with one thread whose queries wait for release, every looked up pair is granted. */
+  private GrantBatchLoader grantBatchLoader(Integer queueCapacity) {
+    AssumableIdentityRepository repository =
+        (AssumableIdentityRepository)
+            Proxy.newProxyInstance(
+                AssumableIdentityRepository.class.getClassLoader(),
+                new Class<?>[] {AssumableIdentityRepository.class},
+                (proxy, method, arguments) -> {
+                  switch (method.getName()) {
+                    case "findAllKeysIn":
+                      querying.countDown();
+                      release.await();
+                      return ((Collection<?>) arguments[0]).stream().collect(Collectors.toList());
+                    case "toString":
+                      return "repository";
+                    default:
+                      throw new UnsupportedOperationException(method.getName());
+                  }
+                });
+    grantBatchLoader = new GrantBatchLoader();
+    ReflectionTestUtils.setField(grantBatchLoader, "enabled", true);
+    ReflectionTestUtils.setField(grantBatchLoader, "threads", 1);
+    ReflectionTestUtils.setField(grantBatchLoader, "batchSize", 1);
+    ReflectionTestUtils.setField(grantBatchLoader, "queueCapacity", queueCapacity);
+    ReflectionTestUtils.setField(grantBatchLoader, "repository", repository);
+    grantBatchLoader.initialize();
+    return grantBatchLoader;
+  }
+
+  private AssumableIdentityKey key() {
+    return new AssumableIdentityKey(UUID.randomUUID(), UUID.randomUUID());
+  }
+
+  @Test
+  public void fullQueueIsOverloaded() throws Exception {
+    GrantBatchLoader grantBatchLoader = grantBatchLoader(2);
+    CompletableFuture<Boolean> loading = grantBatchLoader.isGranted(key());
+    querying.await();
+    List<CompletableFuture<Boolean>> queued =
+        List.of(grantBatchLoader.isGranted(key()), grantBatchLoader.isGranted(key()));
+
+    CompletableFuture<Boolean> rejected = grantBatchLoader.isGranted(key());
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> rejected.get());
+    assertTrue(e.getCause() instanceof Overloaded, String.valueOf(e.getCause()));
+    release.countDown();
+    assertTrue(loading.get());
+
+    for (CompletableFuture<Boolean> lookup : queued) {
+      assertTrue(lookup.get());
+    }
+  }
+}
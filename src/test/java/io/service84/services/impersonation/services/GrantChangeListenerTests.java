@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+public class GrantChangeListenerTests {
+  private static final String Channel = "assumable_identity_changes";
+  private static final String ListenerPid =
+      "SELECT pid FROM pg_stat_activity"
+          + " WHERE query LIKE 'SELECT pg_notify(%version%' AND pid <> pg_backend_pid()";
+
+  private static EmbeddedPostgres postgres;
+  private static JdbcTemplate jdbcTemplate;
+
+  @BeforeAll
+  public static void startDatabase() throws IOException {
+    postgres = EmbeddedPostgres.start();
+    Flyway.configure().dataSource(postgres.getPostgresDatabase()).load().migrate();
+    jdbcTemplate = new JdbcTemplate(postgres.getPostgresDatabase());
+  }
+
+  @AfterAll
+  public static void stopDatabase() throws IOException {
+    postgres.close();
+  }
+
+  private final AtomicInteger flushes = new AtomicInteger();
+  private final List<UUID> granted = new CopyOnWriteArrayList<>();
+  private GrantChangeListener listener;
+
+  @BeforeEach
+  public void startListener() {
+    GrantChangeNotifier notifier =
+        new GrantChangeNotifier() {
+          @Override
+          void applyFlush() {
+            flushes.incrementAndGet();
+          }
+
+          @Override
+          void applyGranted(UUID subject, UUID identity) {
+            granted.add(identity);
+          }
+        };
+    ReflectionTestUtils.setField(notifier, "enabled", true);
+    ReflectionTestUtils.setField(notifier, "channel", Channel);
+    DataSourceProperties dataSourceProperties = new DataSourceProperties();
+    dataSourceProperties.setUrl(postgres.getJdbcUrl("postgres", "postgres"));
+    dataSourceProperties.setUsername("postgres");
+    listener = new GrantChangeListener();
+    ReflectionTestUtils.setField(listener, "pollTimeout", Duration.ofMillis(50));
+    ReflectionTestUtils.setField(listener, "reconnectDelay", Duration.ofMillis(500));
+    ReflectionTestUtils.setField(listener, "dataSourceProperties", dataSourceProperties);
+    ReflectionTestUtils.setField(listener, "notifier", notifier);
+    listener.start();
+    await(() -> flushes.get() == 1 && listenerPid() != null);
+  }
+
+  @AfterEach
+  public void stopListener() {
+    listener.stop();
+  }
+
+  @Test
+  public void firstConnectionFlushesOnce() {
+    UUID identity = UUID.randomUUID();
+
+    notifyGranted(identity);
+
+    await(() -> granted.contains(identity));
+    assertEquals(1, flushes.get());
+  }
+
+  @Test
+  public void reconnectWithoutMissedChangesKeepsEverything() {
+    reconnect(false);
+    UUID identity = UUID.randomUUID();
+
+    notifyGranted(identity);
+
+    await(() -> granted.contains(identity));
+    assertEquals(1, flushes.get());
+  }
+
+  @Test
+  public void reconnectAfterMissedChangesFlushes() {
+    reconnect(true);
+
+    await(() -> flushes.get() == 2);
+  }
+
+  /** Terminate the listening connection, optionally changing the grants before it reconnects. */
+  private void reconnect(Boolean change) {
+    Integer pid = listenerPid();
+    jdbcTemplate.queryForObject("SELECT pg_terminate_backend(?)", Boolean.class, pid);
+
+    if (change) {
+      jdbcTemplate.update("UPDATE assumable_identity_version SET version = version + 1");
+    }
+
+    await(
+        () -> {
+          Integer next = listenerPid();
+          return next != null && !next.equals(pid);
+        });
+  }
+
+  private Integer listenerPid() {
+    List<Integer> pids = jdbcTemplate.queryForList(ListenerPid, Integer.class);
+    return pids.isEmpty() ? null : pids.get(0);
+  }
+
+  private void notifyGranted(UUID identity) {
+    jdbcTemplate.queryForObject(
+        "SELECT pg_notify(?, ?)::text",
+        String.class,
+        Channel,
+        "grant " + UUID.randomUUID() + " " + identity);
+  }
+
+  private static void await(BooleanSupplier condition) {
+    long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Timed out");
+
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
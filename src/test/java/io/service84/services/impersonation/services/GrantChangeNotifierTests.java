@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+
+public class GrantChangeNotifierTests {
+  private final UUID subject = UUID.randomUUID();
+  private final UUID identity = UUID.randomUUID();
+
+  private ReadYourWrites readYourWrites() {
+    ReadYourWrites readYourWrites = new ReadYourWrites();
+    ReflectionTestUtils.setField(readYourWrites, "enabled", true);
+    ReflectionTestUtils.setField(readYourWrites, "window", Duration.ofSeconds(15));
+    readYourWrites.initialize();
+    return readYourWrites;
+  }
+
+  /** The routing of an assume: pinned subjects read the primary, the others a lagging replica. */
+  private Function<AssumableIdentityKey, Boolean> assume(
+      ReadYourWrites readYourWrites, Boolean primary, Boolean replica) {
+    return key -> readYourWrites.isPinned(key.getSubject()) ? primary : replica;
+  }
+
+  /**
+   * A grant cache that runs an assume right after each invalidation, the window in which a
+   * concurrent request could put a stale decision back.
+   */
+  private GrantCache grantCache(Runnable concurrentAssume) {
+    GrantCache grantCache =
+        new GrantCache() {
+          @Override
+          public void invalidate(UUID subject, UUID identity) {
+            super.invalidate(subject, identity);
+            concurrentAssume.run();
+          }
+        };
+    ReflectionTestUtils.setField(grantCache, "enabled", true);
+    ReflectionTestUtils.setField(grantCache, "maximumSize", 1000L);
+    ReflectionTestUtils.setField(grantCache, "timeToLive", Duration.ofSeconds(30));
+    ReflectionTestUtils.setField(grantCache, "meterRegistry", new SimpleMeterRegistry());
+    grantCache.initialize();
+    return grantCache;
+  }
+
+  private GrantChangeNotifier grantChangeNotifier(
+      GrantCache grantCache, ReadYourWrites readYourWrites) {
+    GrantChangeNotifier grantChangeNotifier = new GrantChangeNotifier();
+    ReflectionTestUtils.setField(grantChangeNotifier, "grantCache", grantCache);
+    ReflectionTestUtils.setField(grantChangeNotifier, "grantFilter", new GrantFilter());
+    ReflectionTestUtils.setField(grantChangeNotifier, "readYourWrites", readYourWrites);
+    return grantChangeNotifier;
+  }
+
+  @Test
+  public void revokeThenAssume() {
+    ReadYourWrites readYourWrites = readYourWrites();
+    Function<AssumableIdentityKey, Boolean> assume = assume(readYourWrites, false, true);
+    GrantCache[] grantCache = new GrantCache[1];
+    grantCache[0] = grantCache(() -> grantCache[0].isGranted(subject, identity, assume));
+    assertTrue(grantCache[0].isGranted(subject, identity, assume));
+
+    grantChangeNotifier(grantCache[0], readYourWrites).applyRevoked(subject, identity);
+
+    assertFalse(grantCache[0].isGranted(subject, identity, assume));
+  }
+
+  @Test
+  public void grantThenAssume() {
+    ReadYourWrites readYourWrites = readYourWrites();
+    Function<AssumableIdentityKey, Boolean> assume = assume(readYourWrites, true, false);
+    GrantCache[] grantCache = new GrantCache[1];
+    grantCache[0] = grantCache(() -> grantCache[0].isGranted(subject, identity, assume));
+    assertFalse(grantCache[0].isGranted(subject, identity, assume));
+
+    grantChangeNotifier(grantCache[0], readYourWrites).applyGranted(subject, identity);
+
+    assertTrue(grantCache[0].isGranted(subject, identity, assume));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+public class GrantFilterTests {
+  private static AssumableIdentityKey randomKey() {
+    return new AssumableIdentityKey(UUID.randomUUID(), UUID.randomUUID());
+  }
+
+  /** A repository whose grants are the committed set, each stream reads a snapshot of it. */
+  private static AssumableIdentityRepository repository(Set<AssumableIdentityKey> committed) {
+    return (AssumableIdentityRepository)
+        Proxy.newProxyInstance(
+            AssumableIdentityRepository.class.getClassLoader(),
+            new Class<?>[] {AssumableIdentityRepository.class},
+            (proxy, method, arguments) -> {
+              switch (method.getName()) {
+                case "count":
+                  return (long) committed.size();
+                case "streamAllKeys":
+                  return List.copyOf(committed).stream();
+                case "toString":
+                  return "AssumableIdentityRepository";
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  private static GrantFilter grantFilter(Set<AssumableIdentityKey> committed) {
+    GrantFilter grantFilter = new GrantFilter();
+    ReflectionTestUtils.setField(grantFilter, "enabled", true);
+    ReflectionTestUtils.setField(grantFilter, "expectedInsertions", 1000L);
+    ReflectionTestUtils.setField(grantFilter, "falsePositiveRate", 0.01);
+    ReflectionTestUtils.setField(grantFilter, "maximumBytes", 16777216L);
+    ReflectionTestUtils.setField(grantFilter, "repository", repository(committed));
+    return grantFilter;
+  }
+
+  @Test
+  public void sizedForTheFalsePositiveRate() {
+    GrantFilter.BitSet bitSet = new GrantFilter.BitSet(1000000, 0.01, 16777216);
+    // m = -n ln p / ln² 2 = 9585059 bits, rounded up to whole words, k = m / n ln 2 = 7
+    assertEquals(9585088, bitSet.getBitCount());
+    assertEquals(7, bitSet.getHashCount());
+  }
+
+  @Test
+  public void sizeCappedByMaximumBytes() {
+    GrantFilter.BitSet bitSet = new GrantFilter.BitSet(1000000, 0.01, 1024);
+    assertEquals(8192, bitSet.getBitCount());
+    assertEquals(1, bitSet.getHashCount());
+  }
+
+  @Test
+  public void sizeAtLeastOneWord() {
+    GrantFilter.BitSet bitSet = new GrantFilter.BitSet(0, 0.01, 16777216);
+    assertEquals(Long.SIZE, bitSet.getBitCount());
+  }
+
+  @Test
+  public void noFalseNegatives() {
+    GrantFilter.BitSet bitSet = new GrantFilter.BitSet(10000, 0.01, 16777216);
+    List<AssumableIdentityKey> keys = new ArrayList<>();
+
+    for (int index = 0; index < 10000; index++) {
+      AssumableIdentityKey key = randomKey();
+      keys.add(key);
+      bitSet.put(key.getSubject(), key.getIdentity());
+    }
+
+    for (AssumableIdentityKey key : keys) {
+      assertTrue(bitSet.mightContain(key.getSubject(), key.getIdentity()));
+    }
+  }
+
+  @Test
+  public void everyPairMightBeGrantedBeforeTheFirstBuild() {
+    GrantFilter grantFilter = grantFilter(ConcurrentHashMap.newKeySet());
+    assertTrue(grantFilter.mightBeGranted(UUID.randomUUID(), UUID.randomUUID()));
+  }
+
+  @Test
+  public void noFalseNegativesAcrossConcurrentRebuilds() throws InterruptedException {
+    Set<AssumableIdentityKey> committed = ConcurrentHashMap.newKeySet();
+    GrantFilter grantFilter = grantFilter(committed);
+    grantFilter.rebuild();
+    AtomicBoolean granting = new AtomicBoolean(true);
+    Thread rebuilder =
+        new Thread(
+            () -> {
+              while (granting.get()) {
+                grantFilter.rebuild();
+              }
+            });
+    rebuilder.start();
+
+    try {
+      // As in production the pair is committed before it is put
+      for (int index = 0; index < 20000; index++) {
+        AssumableIdentityKey key = randomKey();
+        committed.add(key);
+        grantFilter.put(key.getSubject(), key.getIdentity());
+        assertTrue(grantFilter.mightBeGranted(key.getSubject(), key.getIdentity()));
+      }
+    } finally {
+      granting.set(false);
+      rebuilder.join();
+    }
+
+    for (AssumableIdentityKey key : committed) {
+      assertTrue(grantFilter.mightBeGranted(key.getSubject(), key.getIdentity()));
+    }
+  }
+}
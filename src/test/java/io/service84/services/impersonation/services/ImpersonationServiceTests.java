@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.service84.library.authutils.services.AuthenticationService;
+import io.service84.services.impersonation.exceptions.InsufficientPermission;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+import io.service84.services.impersonation.persistence.repository.AssumableIdentityRepository;
+
+public class ImpersonationServiceTests {
+  private final List<Integer> limits = new ArrayList<>();
+
+  /** A service over a repository holding the given number of grants, ordered by subject. */
+  private ImpersonationService impersonationService(Integer grants) {
+    List<AssumableIdentityKey> keys = new ArrayList<>();
+
+    for (int index = 0; index < grants; index++) {
+      keys.add(new AssumableIdentityKey(new UUID(0L, index), UUID.randomUUID()));
+    }
+
+    AssumableIdentityRepository repository =
+        (AssumableIdentityRepository)
+            Proxy.newProxyInstance(
+                AssumableIdentityRepository.class.getClassLoader(),
+                new Class<?>[] {AssumableIdentityRepository.class},
+                (proxy, method, arguments) -> {
+                  switch (method.getName()) {
+                    case "findVersion":
+                      return "version";
+                    case "findAllKeysAfter":
+                      Integer limit = (Integer) arguments[2];
+                      limits.add(limit);
+                      return keys.subList(0, Math.min(limit, keys.size()));
+                    case "toString":
+                      return "repository";
+                    default:
+                      throw new UnsupportedOperationException(method.getName());
+                  }
+                });
+    AuthenticationService authenticationService =
+        new AuthenticationService() {
+          @Override
+          public List<String> getScopes() {
+            return Collections.singletonList("impersonation:retrieve_any_assumable_identity");
+          }
+        };
+    ImpersonationMetrics metrics = new ImpersonationMetrics();
+    ReflectionTestUtils.setField(metrics, "meterRegistry", new SimpleMeterRegistry());
+    metrics.initialize();
+    ImpersonationService impersonationService = new ImpersonationService();
+    ReflectionTestUtils.setField(impersonationService, "repository", repository);
+    ReflectionTestUtils.setField(
+        impersonationService, "authenticationService", authenticationService);
+    ReflectionTestUtils.setField(impersonationService, "metrics", metrics);
+    return impersonationService;
+  }
+
+  private SeekPage<AssumableIdentityKey> retrieve(Integer grants, Integer pageSize)
+      throws InsufficientPermission {
+    return impersonationService(grants)
+        .retrieveAssumableIdentities(
+            null, null, null, pageSize, SeekPage.Total.Omitted, Collections.emptyList());
+  }
+
+  private SeekPage<AssumableIdentityKey> retrieve(
+      AssumableIdentityKey after, Collection<String> knownVersions) throws InsufficientPermission {
+    return impersonationService(30)
+        .retrieveAssumableIdentities(null, null, after, 20, SeekPage.Total.Omitted, knownVersions);
+  }
+
+  @Test
+  public void fewerThanPageSize() throws InsufficientPermission {
+    SeekPage<AssumableIdentityKey> page = retrieve(19, 20);
+
+    assertEquals(19, page.getContent().size());
+    assertFalse(page.hasNext());
+  }
+
+  @Test
+  public void exactlyPageSize() throws InsufficientPermission {
+    SeekPage<AssumableIdentityKey> page = retrieve(20, 20);
+
+    assertEquals(20, page.getContent().size());
+    assertFalse(page.hasNext());
+  }
+
+  @Test
+  public void oneMoreThanPageSize() throws InsufficientPermission {
+    SeekPage<AssumableIdentityKey> page = retrieve(21, 20);
+
+    assertEquals(20, page.getContent().size());
+    assertEquals(new UUID(0L, 19), page.getContent().get(19).getSubject());
+    assertTrue(page.hasNext());
+  }
+
+  @Test
+  public void readsOnePastThePage() throws InsufficientPermission {
+    retrieve(0, 1000);
+
+    assertEquals(Collections.singletonList(1001), limits);
+  }
+
+  @Test
+  public void knownVersionIsNotModified() throws InsufficientPermission {
+    String version = retrieve(null, Collections.emptyList()).getVersion();
+    limits.clear();
+
+    SeekPage<AssumableIdentityKey> page = retrieve(null, Collections.singletonList(version));
+
+    assertFalse(page.isModified());
+    assertEquals(version, page.getVersion());
+    assertTrue(limits.isEmpty());
+  }
+
+  @Test
+  public void knownVersionOfAnotherPageIsModified() throws InsufficientPermission {
+    SeekPage<AssumableIdentityKey> first = retrieve(null, Collections.emptyList());
+    AssumableIdentityKey after = first.getContent().get(19);
+
+    SeekPage<AssumableIdentityKey> next =
+        retrieve(after, Collections.singletonList(first.getVersion()));
+
+    assertTrue(next.isModified());
+    assertNotEquals(first.getVersion(), next.getVersion());
+  }
+
+  @Test
+  public void pageVersionCoversTheQuery() {
+    UUID one = UUID.randomUUID();
+    UUID two = UUID.randomUUID();
+    AssumableIdentityKey after = new AssumableIdentityKey(one, two);
+    String version =
+        ImpersonationService.pageVersion(
+            "grants", Arrays.asList(one, two), null, null, 20, SeekPage.Total.Exact);
+
+    assertEquals(
+        version,
+        ImpersonationService.pageVersion(
+            "grants", Arrays.asList(two, one, two), null, null, 20, SeekPage.Total.Exact));
+    assertNotEquals(
+        version,
+        ImpersonationService.pageVersion(
+            "changed", Arrays.asList(one, two), null, null, 20, SeekPage.Total.Exact));
+    assertNotEquals(
+        version,
+        ImpersonationService.pageVersion(
+            "grants", Arrays.asList(one), null, null, 20, SeekPage.Total.Exact));
+    assertNotEquals(
+        version,
+        ImpersonationService.pageVersion(
+            "grants", null, Arrays.asList(one, two), null, 20, SeekPage.Total.Exact));
+    assertNotEquals(
+        version,
+        ImpersonationService.pageVersion(
+            "grants", Arrays.asList(one, two), null, after, 20, SeekPage.Total.Exact));
+    assertNotEquals(
+        version,
+        ImpersonationService.pageVersion(
+            "grants", Arrays.asList(one, two), null, null, 21, SeekPage.Total.Exact));
+    assertNotEquals(
+        version,
+        ImpersonationService.pageVersion(
+            "grants", Arrays.asList(one, two), null, null, 20, SeekPage.Total.Omitted));
+  }
+}
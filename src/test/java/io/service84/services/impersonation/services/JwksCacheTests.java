@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class JwksCacheTests {
+  private static RSAPublicKey generateKey() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    return (RSAPublicKey) generator.generateKeyPair().getPublic();
+  }
+
+  private static String jwk(String keyId, RSAPublicKey key) {
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    return String.format(
+        "{\"kty\":\"RSA\",\"use\":\"sig\",\"alg\":\"RS256\",\"kid\":\"%s\",\"n\":\"%s\",\"e\":\"%s\"}",
+        keyId,
+        encoder.encodeToString(key.getModulus().toByteArray()),
+        encoder.encodeToString(key.getPublicExponent().toByteArray()));
+  }
+
+  private final Map<String, RSAPublicKey> published = new LinkedHashMap<>();
+  private final AtomicInteger fetches = new AtomicInteger();
+  private volatile Integer status = 200;
+  private HttpServer server;
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(
+        "/jwks",
+        exchange -> {
+          fetches.incrementAndGet();
+          String keys =
+              published.entrySet().stream()
+                  .map(entry -> jwk(entry.getKey(), entry.getValue()))
+                  .collect(Collectors.joining(","));
+          byte[] body = ("{\"keys\":[" + keys + "]}").getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().add("Content-Type", "application/json");
+          exchange.sendResponseHeaders(status, body.length);
+
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+          }
+        });
+    server.start();
+  }
+
+  @AfterEach
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private JwksCache jwksCache(Duration minimumRefreshInterval) {
+    JwksCache jwksCache = new JwksCache();
+    ReflectionTestUtils.setField(
+        jwksCache, "url", "http://localhost:" + server.getAddress().getPort() + "/jwks");
+    ReflectionTestUtils.setField(jwksCache, "enabled", true);
+    ReflectionTestUtils.setField(jwksCache, "minimumRefreshInterval", minimumRefreshInterval);
+    jwksCache.initialize();
+    return jwksCache;
+  }
+
+  @Test
+  public void knownKeyIsServedFromMemory() throws Exception {
+    RSAPublicKey key = generateKey();
+    published.put("first", key);
+    JwksCache jwksCache = jwksCache(Duration.ZERO);
+
+    assertEquals(key, jwksCache.getPublicKeyById("first"));
+    assertEquals(key, jwksCache.getPublicKeyById("first"));
+    assertEquals(1, fetches.get());
+  }
+
+  @Test
+  public void unknownKeyRefreshes() throws Exception {
+    published.put("first", generateKey());
+    JwksCache jwksCache = jwksCache(Duration.ZERO);
+    RSAPublicKey rotated = generateKey();
+    published.put("second", rotated);
+
+    assertEquals(rotated, jwksCache.getPublicKeyById("second"));
+    assertEquals(2, fetches.get());
+  }
+
+  @Test
+  public void unknownKeysRefreshAtMostOncePerInterval() throws Exception {
+    published.put("first", generateKey());
+    JwksCache jwksCache = jwksCache(Duration.ofHours(1));
+    published.put("second", generateKey());
+
+    assertNull(jwksCache.getPublicKeyById("second"));
+    assertNull(jwksCache.getPublicKeyById("third"));
+    assertEquals(1, fetches.get());
+  }
+
+  @Test
+  public void failedRefreshKeepsKnownKeys() throws Exception {
+    RSAPublicKey key = generateKey();
+    published.put("first", key);
+    JwksCache jwksCache = jwksCache(Duration.ZERO);
+    status = 500;
+
+    jwksCache.refresh();
+
+    assertEquals(2, fetches.get());
+    assertEquals(key, jwksCache.getPublicKeyById("first"));
+  }
+
+  @Test
+  public void disabledCacheNeverFetches() {
+    JwksCache jwksCache = new JwksCache();
+    ReflectionTestUtils.setField(jwksCache, "enabled", false);
+    ReflectionTestUtils.setField(jwksCache, "minimumRefreshInterval", Duration.ZERO);
+    jwksCache.initialize();
+    jwksCache.refresh();
+
+    assertNull(jwksCache.getPublicKeyById("first"));
+    assertEquals(0, fetches.get());
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import io.service84.services.impersonation.api.rest.exceptionalresults.BadRequest;
+import io.service84.services.impersonation.dto.AssumableIdentityPageDTO;
+import io.service84.services.impersonation.persistence.model.AssumableIdentityKey;
+
+public class TranslatorTests {
+  private final Translator translator = new Translator();
+
+  @Test
+  public void cursorRoundTrip() {
+    AssumableIdentityKey key = new AssumableIdentityKey(UUID.randomUUID(), UUID.randomUUID());
+
+    AssumableIdentityKey decoded = translator.getCursor(translator.getCursor(key));
+
+    assertEquals(key.getSubject(), decoded.getSubject());
+    assertEquals(key.getIdentity(), decoded.getIdentity());
+  }
+
+  @Test
+  public void cursorIsUrlSafe() {
+    UUID ones = new UUID(-1L, -1L);
+
+    assertEquals(
+        "__________________________________________8",
+        translator.getCursor(new AssumableIdentityKey(ones, ones)));
+  }
+
+  @Test
+  public void emptyCursorIsFirstPage() {
+    assertNull(translator.getCursor((String) null));
+    assertNull(translator.getCursor(""));
+  }
+
+  @Test
+  public void invalidCursor() {
+    String truncated = Base64.getUrlEncoder().withoutPadding().encodeToString(new byte[31]);
+
+    assertThrows(BadRequest.class, () -> translator.getCursor("not a cursor!"));
+    assertThrows(BadRequest.class, () -> translator.getCursor(truncated));
+  }
+
+  @Test
+  public void pageSizeDefault() {
+    assertEquals(20, translator.getPageSize(null));
+  }
+
+  @Test
+  public void pageSizeBounds() {
+    assertEquals(1, translator.getPageSize(1));
+    assertEquals(1000, translator.getPageSize(1000));
+    assertThrows(BadRequest.class, () -> translator.getPageSize(0));
+    assertThrows(BadRequest.class, () -> translator.getPageSize(1001));
+    assertThrows(BadRequest.class, () -> translator.getPageSize(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void notModifiedPage() {
+    ResponseEntity<AssumableIdentityPageDTO> response =
+        translator.translateAssumableIdentityPage(
+            SeekPage.notModified("version"), null, HttpStatus.OK);
+
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    assertEquals("\"version\"", response.getHeaders().getETag());
+    assertNull(response.getBody());
+  }
+
+  @Test
+  public void modifiedPage() {
+    AssumableIdentityKey key = new AssumableIdentityKey(UUID.randomUUID(), UUID.randomUUID());
+    SeekPage<AssumableIdentityKey> page =
+        new SeekPage<>(Collections.singletonList(key), true, null, "version");
+
+    ResponseEntity<AssumableIdentityPageDTO> response =
+        translator.translateAssumableIdentityPage(page, null, HttpStatus.OK);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("\"version\"", response.getHeaders().getETag());
+    assertEquals(translator.getCursor(key), response.getBody().getMetadata().getNextIndex());
+  }
+
+  @Test
+  public void versions() {
+    assertEquals(Collections.emptyList(), translator.getVersions(null));
+    assertEquals(Arrays.asList("one", "two"), translator.getVersions("\"one\", W/\"two\""));
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.services.impersonation.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.InvalidClaimException;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class VerifiedTokenCacheTests {
+  private static final String Issuer = "https://issuer.example";
+  private static final String KeyId = "signing";
+
+  private static KeyPair keyPair;
+  private static KeyPair otherKeyPair;
+
+  @BeforeAll
+  public static void generateKeyPairs() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    keyPair = generator.generateKeyPair();
+    otherKeyPair = generator.generateKeyPair();
+  }
+
+  private final AtomicInteger lookups = new AtomicInteger();
+  private VerifiedTokenCache verifiedTokenCache;
+
+  @BeforeEach
+  public void createCache() {
+    JwksCache jwksCache =
+        new JwksCache() {
+          @Override
+          public RSAPublicKey getPublicKeyById(String keyId) {
+            lookups.incrementAndGet();
+            return KeyId.equals(keyId) ? (RSAPublicKey) keyPair.getPublic() : null;
+          }
+        };
+    verifiedTokenCache = new VerifiedTokenCache();
+    ReflectionTestUtils.setField(verifiedTokenCache, "issuer", Issuer);
+    ReflectionTestUtils.setField(verifiedTokenCache, "enabled", true);
+    ReflectionTestUtils.setField(verifiedTokenCache, "maximumSize", 100L);
+    ReflectionTestUtils.setField(verifiedTokenCache, "timeToLive", Duration.ofMinutes(15));
+    ReflectionTestUtils.setField(verifiedTokenCache, "jwksCache", jwksCache);
+    ReflectionTestUtils.setField(verifiedTokenCache, "meterRegistry", new SimpleMeterRegistry());
+    verifiedTokenCache.initialize();
+  }
+
+  private static JWTCreator.Builder token() {
+    return JWT.create().withIssuer(Issuer).withKeyId(KeyId).withSubject("subject");
+  }
+
+  private static String sign(JWTCreator.Builder token, KeyPair keyPair) {
+    return token.sign(Algorithm.RSA256(null, (RSAPrivateKey) keyPair.getPrivate()));
+  }
+
+  @Test
+  public void repeatedTokenIsVerifiedOnce() {
+    String token =
+        sign(token().withExpiresAt(new Date(System.currentTimeMillis() + 60000)), keyPair);
+
+    DecodedJWT verified = verifiedTokenCache.verify(token);
+
+    assertSame(verified, verifiedTokenCache.verify(token));
+    assertEquals("subject", verified.getSubject());
+    assertEquals(1, lookups.get());
+  }
+
+  @Test
+  public void tokenWithoutExpirationIsVerifiedEveryTime() {
+    String token = sign(token(), keyPair);
+
+    assertNotSame(verifiedTokenCache.verify(token), verifiedTokenCache.verify(token));
+    assertEquals(2, lookups.get());
+  }
+
+  @Test
+  public void expiredTokenIsVerifiedAgain() throws InterruptedException {
+    // Expirations are whole seconds and are compared with the current second
+    long expiresAt = (System.currentTimeMillis() / 1000 + 2) * 1000;
+    String token = sign(token().withExpiresAt(new Date(expiresAt)), keyPair);
+    verifiedTokenCache.verify(token);
+
+    Thread.sleep(expiresAt + 1000 - System.currentTimeMillis());
+
+    assertThrows(TokenExpiredException.class, () -> verifiedTokenCache.verify(token));
+  }
+
+  @Test
+  public void cachedTokenClaimsAreCheckedOnEveryUse() {
+    String token =
+        sign(
+            token()
+                .withNotBefore(new Date(System.currentTimeMillis() + 60000))
+                .withExpiresAt(new Date(System.currentTimeMillis() + 120000)),
+            keyPair);
+    // A cached entry whose claims do not hold, as a token that has expired but not been evicted
+    Cache<String, DecodedJWT> cache =
+        (Cache<String, DecodedJWT>) ReflectionTestUtils.getField(verifiedTokenCache, "cache");
+    cache.put(
+        ReflectionTestUtils.invokeMethod(VerifiedTokenCache.class, "hash", token),
+        JWT.decode(token));
+
+    assertThrows(InvalidClaimException.class, () -> verifiedTokenCache.verify(token));
+    assertEquals(0, lookups.get());
+  }
+
+  @Test
+  public void foreignSignatureIsRejected() {
+    String token =
+        sign(token().withExpiresAt(new Date(System.currentTimeMillis() + 60000)), otherKeyPair);
+
+    assertThrows(SignatureVerificationException.class, () -> verifiedTokenCache.verify(token));
+    assertThrows(SignatureVerificationException.class, () -> verifiedTokenCache.verify(token));
+  }
+
+  @Test
+  public void foreignIssuerIsRejected() {
+    String token =
+        sign(
+            token()
+                .withIssuer("https://other.example")
+                .withExpiresAt(new Date(System.currentTimeMillis() + 60000)),
+            keyPair);
+
+    assertThrows(InvalidClaimException.class, () -> verifiedTokenCache.verify(token));
+  }
+}